@@ -0,0 +1,248 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import com.wilddog.client.SyncError;
+import com.wilddog.wildgeo.core.GeoHash;
+import com.wilddog.wildgeo.core.GeoHashQuery;
+import com.wilddog.wildgeo.store.InMemoryGeoStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast a GeoQuery processes the child events of its geohash ranges. Events are fed directly to the range
+ * listener of the query, so the numbers cover the query engine and the event listeners, but not the store. See
+ * {@link GeoQueryLoadBenchmark} for the time it takes to load a query from a store.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GeoQueryBenchmark {
+
+    private static final GeoLocation CENTER = new GeoLocation(37.7853889, -122.4056973);
+    // in kilometers
+    private static final double RADIUS = 5;
+    // spread of the locations around the center, in degrees
+    private static final double SPREAD = 0.12;
+    // how far a moving key jumps, in degrees
+    private static final double MOVE_DISTANCE = 0.002;
+    private static final int EXTRA_KEYS = 1024;
+
+    // runs all events right away, so each benchmark call includes the listener callbacks
+    private static final EventRaiser SYNCHRONOUS_RAISER = new EventRaiser() {
+        @Override
+        public void raiseEvent(Runnable r) {
+            r.run();
+        }
+
+        @Override
+        public void raiseEventDelayed(Runnable r, long delayMillis) {
+            r.run();
+        }
+    };
+
+    // runs the work of the query on the calling thread, so each benchmark call includes processing the event
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable r) {
+            r.run();
+        }
+    };
+
+    // runs the timers of the query right away, so each benchmark call includes resolved removals
+    private static final ScheduledExecutorService SYNCHRONOUS_TIMER = new ScheduledThreadPoolExecutor(0) {
+        @Override
+        public ScheduledFuture<?> schedule(Runnable r, long delay, TimeUnit unit) {
+            r.run();
+            return null;
+        }
+    };
+
+    private static class CountingListener implements GeoQueryEventListener {
+        long events;
+
+        @Override
+        public void onKeyEntered(String key, GeoLocation location) {
+            this.events++;
+        }
+
+        @Override
+        public void onKeyExited(String key) {
+            this.events++;
+        }
+
+        @Override
+        public void onKeyMoved(String key, GeoLocation location) {
+            this.events++;
+        }
+
+        @Override
+        public void onGeoQueryReady() {
+        }
+
+        @Override
+        public void onGeoQueryError(SyncError error) {
+        }
+    }
+
+    @Param({"1000", "100000"})
+    public int keyCount;
+
+    private final CountingListener eventListener = new CountingListener();
+    private GeoQuery geoQuery;
+    private SubscriptionManager.RangeListener rangeListener;
+
+    private String[] keys;
+    private GeoLocation[] locations;
+    private GeoLocation[] movedLocations;
+    private boolean[] moved;
+    private int nextMove;
+
+    private String[] extraKeys;
+    private GeoLocation[] extraLocations;
+    private GeoHashQuery[] extraRanges;
+    private int nextExtra;
+
+    private int centerMoves;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        WildGeo wildGeo = new WildGeo(new InMemoryGeoStore(), SYNCHRONOUS_RAISER);
+        wildGeo.setQueryExecutor(DIRECT_EXECUTOR);
+        wildGeo.setQueryTimer(SYNCHRONOUS_TIMER);
+        this.geoQuery = wildGeo.queryAtLocation(CENTER, RADIUS);
+        this.geoQuery.addGeoQueryEventListener(this.eventListener);
+        this.rangeListener = this.geoQuery.getRangeListener();
+        Set<GeoHashQuery> queries = this.geoQuery.getGeoHashQueries();
+
+        Random random = new Random(42);
+        this.keys = new String[this.keyCount];
+        this.locations = new GeoLocation[this.keyCount];
+        this.movedLocations = new GeoLocation[this.keyCount];
+        this.moved = new boolean[this.keyCount];
+        for (int i = 0; i < this.keyCount; i++) {
+            this.keys[i] = "key" + i;
+            GeoLocation location = randomLocation(random, queries);
+            this.locations[i] = location;
+            this.movedLocations[i] = new GeoLocation(location.latitude + MOVE_DISTANCE, location.longitude);
+            this.rangeListener.onLocationAdded(this.keys[i], location, null);
+        }
+        this.extraKeys = new String[EXTRA_KEYS];
+        this.extraLocations = new GeoLocation[EXTRA_KEYS];
+        this.extraRanges = new GeoHashQuery[EXTRA_KEYS];
+        for (int i = 0; i < EXTRA_KEYS; i++) {
+            this.extraKeys[i] = "extra" + i;
+            this.extraLocations[i] = randomLocation(random, queries);
+            this.extraRanges[i] = rangeOf(this.extraLocations[i], queries);
+        }
+        for (GeoHashQuery query: queries) {
+            this.rangeListener.onRangeReady(query);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.geoQuery.removeAllListeners();
+    }
+
+    // a random location that lies in one of the ranges of the query, as the backend would only report those
+    private static GeoLocation randomLocation(Random random, Set<GeoHashQuery> queries) {
+        while (true) {
+            GeoLocation location = new GeoLocation(CENTER.latitude + (random.nextDouble() - 0.5)*SPREAD,
+                    CENTER.longitude + (random.nextDouble() - 0.5)*SPREAD);
+            if (rangeOf(location, queries) != null) {
+                return location;
+            }
+        }
+    }
+
+    private static GeoHashQuery rangeOf(GeoLocation location, Set<GeoHashQuery> queries) {
+        GeoHash geoHash = new GeoHash(location);
+        for (GeoHashQuery query: queries) {
+            if (query.containsGeoHash(geoHash)) {
+                return query;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A tracked key moves back and forth, which is a move, enter or exit event depending on where it is.
+     */
+    @Benchmark
+    public long childChanged() {
+        int i = this.nextMove;
+        this.nextMove = (i + 1 == this.keyCount) ? 0 : i + 1;
+        this.moved[i] = !this.moved[i];
+        this.rangeListener.onLocationChanged(this.keys[i], this.moved[i] ? this.movedLocations[i] : this.locations[i],
+                null);
+        return this.eventListener.events;
+    }
+
+    /**
+     * A new key is added and removed again, including the resolution of the removal.
+     */
+    @Benchmark
+    public long childAddedAndRemoved() {
+        int i = this.nextExtra;
+        this.nextExtra = (i + 1) & (EXTRA_KEYS - 1);
+        this.rangeListener.onLocationAdded(this.extraKeys[i], this.extraLocations[i], null);
+        this.rangeListener.onLocationRemoved(this.extraRanges[i], this.extraKeys[i]);
+        return this.eventListener.events;
+    }
+
+    /**
+     * The center of the query moves back and forth by a small distance, which rescans the tracked keys.
+     */
+    @Benchmark
+    public long setCenter() {
+        this.centerMoves++;
+        double offset = ((this.centerMoves & 1) == 0) ? 0 : MOVE_DISTANCE;
+        this.geoQuery.setCenter(new GeoLocation(CENTER.latitude + offset, CENTER.longitude));
+        return this.eventListener.events;
+    }
+}
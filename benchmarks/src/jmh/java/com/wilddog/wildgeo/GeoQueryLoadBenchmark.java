@@ -0,0 +1,128 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import com.wilddog.client.SyncError;
+import com.wilddog.wildgeo.store.InMemoryGeoStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time from adding a listener to a new GeoQuery until onGeoQueryReady, against an in-memory store
+ * holding many keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GeoQueryLoadBenchmark {
+
+    private static final GeoLocation CENTER = new GeoLocation(37.7853889, -122.4056973);
+    // spread of the locations around the center, in degrees
+    private static final double SPREAD = 2;
+    private static final int BATCH_SIZE = 10000;
+
+    private static class ReadyListener implements GeoQueryEventListener {
+        final CountDownLatch ready = new CountDownLatch(1);
+        int entered;
+
+        @Override
+        public void onKeyEntered(String key, GeoLocation location) {
+            this.entered++;
+        }
+
+        @Override
+        public void onKeyExited(String key) {
+        }
+
+        @Override
+        public void onKeyMoved(String key, GeoLocation location) {
+        }
+
+        @Override
+        public void onGeoQueryReady() {
+            this.ready.countDown();
+        }
+
+        @Override
+        public void onGeoQueryError(SyncError error) {
+        }
+    }
+
+    @Param({"100000", "1000000"})
+    public int keyCount;
+
+    // simulated network latency of the store, in milliseconds
+    @Param({"0", "50"})
+    public long latency;
+
+    // in kilometers
+    @Param({"1", "10"})
+    public double radius;
+
+    private WildGeo wildGeo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        InMemoryGeoStore store = new InMemoryGeoStore(this.latency);
+        this.wildGeo = new WildGeo(store, new ThreadEventRaiser());
+        Random random = new Random(42);
+        Map<String, GeoLocation> batch = new HashMap<String, GeoLocation>();
+        for (int i = 0; i < this.keyCount; i++) {
+            batch.put("key" + i, new GeoLocation(CENTER.latitude + (random.nextDouble() - 0.5)*SPREAD,
+                    CENTER.longitude + (random.nextDouble() - 0.5)*SPREAD));
+            if (batch.size() == BATCH_SIZE || i == this.keyCount - 1) {
+                this.wildGeo.setLocations(batch);
+                batch = new HashMap<String, GeoLocation>();
+            }
+        }
+    }
+
+    @Benchmark
+    public int queryUntilReady() throws InterruptedException {
+        GeoQuery geoQuery = this.wildGeo.queryAtLocation(CENTER, this.radius);
+        ReadyListener listener = new ReadyListener();
+        geoQuery.addGeoQueryEventListener(listener);
+        listener.ready.await();
+        geoQuery.removeAllListeners();
+        return listener.entered;
+    }
+}
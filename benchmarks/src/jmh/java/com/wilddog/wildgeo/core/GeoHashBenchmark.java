@@ -0,0 +1,63 @@
+package com.wilddog.wildgeo.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GeoHashBenchmark {
+
+    private static final int SIZE = 1024;
+
+    private final double[] latitudes = new double[SIZE];
+    private final double[] longitudes = new double[SIZE];
+    private final String[] hashes = new String[SIZE];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < SIZE; i++) {
+            this.latitudes[i] = random.nextDouble()*180 - 90;
+            this.longitudes[i] = random.nextDouble()*360 - 180;
+            this.hashes[i] = new GeoHash(this.latitudes[i], this.longitudes[i]).getGeoHashString();
+        }
+    }
+
+    private int nextIndex() {
+        this.next = (this.next + 1) & (SIZE - 1);
+        return this.next;
+    }
+
+    @Benchmark
+    public GeoHash encode() {
+        int i = this.nextIndex();
+        return new GeoHash(this.latitudes[i], this.longitudes[i]);
+    }
+
+    @Benchmark
+    public String encodeToString() {
+        int i = this.nextIndex();
+        return new GeoHash(this.latitudes[i], this.longitudes[i]).getGeoHashString();
+    }
+
+    @Benchmark
+    public GeoHash encodeMaxPrecision() {
+        int i = this.nextIndex();
+        return new GeoHash(this.latitudes[i], this.longitudes[i], GeoHash.MAX_PRECISION);
+    }
+
+    @Benchmark
+    public GeoHash parse() {
+        return new GeoHash(this.hashes[this.nextIndex()]);
+    }
+}
@@ -0,0 +1,44 @@
+package com.wilddog.wildgeo.core;
+
+import com.wilddog.wildgeo.GeoLocation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeoHashQueryBenchmark {
+
+    // in meters
+    @Param({"100", "1000", "10000", "100000"})
+    public double radius;
+
+    @Param({"0", "45", "70"})
+    public double latitude;
+
+    private GeoLocation center;
+
+    @Setup
+    public void setUp() {
+        this.center = new GeoLocation(this.latitude, 13.4);
+    }
+
+    @Benchmark
+    public Set<GeoHashQuery> queriesAtLocation() {
+        return GeoHashQuery.queriesAtLocation(this.center, this.radius);
+    }
+
+    @Benchmark
+    public GeoHashCovering adaptiveCovering() {
+        return GeoHashCovering.atLocation(this.center, this.radius, 12);
+    }
+}
@@ -0,0 +1,69 @@
+package com.wilddog.wildgeo.store;
+
+import com.wilddog.wildgeo.GeoLocation;
+import com.wilddog.wildgeo.core.GeoHash;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WilddogGeoStoreBenchmark {
+
+    private static final int SIZE = 1024;
+
+    // the values as delivered by the Wilddog client for both formats
+    private final Object[] mapValues = new Object[SIZE];
+    private final Object[] compactValues = new Object[SIZE];
+    private final GeoLocation[] locations = new GeoLocation[SIZE];
+    private final GeoHash[] hashes = new GeoHash[SIZE];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < SIZE; i++) {
+            GeoLocation location = new GeoLocation(random.nextDouble()*180 - 90, random.nextDouble()*360 - 180);
+            GeoHash geoHash = new GeoHash(location);
+            Map<String, Object> value = new HashMap<String, Object>();
+            value.put("g", geoHash.getGeoHashString());
+            value.put("l", Arrays.asList(location.latitude, location.longitude));
+            this.mapValues[i] = value;
+            this.compactValues[i] = WilddogGeoStore.compactLocationValue(geoHash, location);
+            this.locations[i] = location;
+            this.hashes[i] = geoHash;
+        }
+    }
+
+    private int nextIndex() {
+        this.next = (this.next + 1) & (SIZE - 1);
+        return this.next;
+    }
+
+    @Benchmark
+    public GeoLocation decodeMap() {
+        return WilddogGeoStore.decodeLocation(this.mapValues[this.nextIndex()]);
+    }
+
+    @Benchmark
+    public GeoLocation decodeCompact() {
+        return WilddogGeoStore.decodeLocation(this.compactValues[this.nextIndex()]);
+    }
+
+    @Benchmark
+    public String encodeCompact() {
+        int i = this.nextIndex();
+        return WilddogGeoStore.compactLocationValue(this.hashes[i], this.locations[i]);
+    }
+}
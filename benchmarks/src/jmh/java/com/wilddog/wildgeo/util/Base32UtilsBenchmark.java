@@ -0,0 +1,54 @@
+package com.wilddog.wildgeo.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Base32UtilsBenchmark {
+
+    private static final int SIZE = 1024;
+    private static final int LENGTH = 10;
+
+    private final long[] bits = new long[SIZE];
+    private final String[] strings = new String[SIZE];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < SIZE; i++) {
+            this.bits[i] = random.nextLong() >>> (64 - LENGTH*Base32Utils.BITS_PER_BASE32_CHAR);
+            this.strings[i] = Base32Utils.bitsToBase32String(this.bits[i], LENGTH);
+        }
+    }
+
+    private int nextIndex() {
+        this.next = (this.next + 1) & (SIZE - 1);
+        return this.next;
+    }
+
+    @Benchmark
+    public String bitsToBase32String() {
+        return Base32Utils.bitsToBase32String(this.bits[this.nextIndex()], LENGTH);
+    }
+
+    @Benchmark
+    public long base32StringToBits() {
+        return Base32Utils.base32StringToBits(this.strings[this.nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean isValidBase32String() {
+        return Base32Utils.isValidBase32String(this.strings[this.nextIndex()]);
+    }
+}
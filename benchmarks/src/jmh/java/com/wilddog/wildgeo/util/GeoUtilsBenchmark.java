@@ -0,0 +1,68 @@
+package com.wilddog.wildgeo.util;
+
+import com.wilddog.wildgeo.GeoLocation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GeoUtilsBenchmark {
+
+    private static final int SIZE = 1024;
+
+    private final GeoLocation center = new GeoLocation(37.7853889, -122.4056973);
+    private final GeoLocation[] locations = new GeoLocation[SIZE];
+    private CircleFilter circleFilter;
+    private PolygonFilter polygonFilter;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < SIZE; i++) {
+            this.locations[i] = new GeoLocation(this.center.latitude + (random.nextDouble() - 0.5)*0.2,
+                    this.center.longitude + (random.nextDouble() - 0.5)*0.2);
+        }
+        this.circleFilter = new CircleFilter(this.center, 5000);
+        // a star shaped zone with 64 vertices
+        List<GeoLocation> vertices = new ArrayList<GeoLocation>();
+        for (int i = 0; i < 64; i++) {
+            double angle = 2*Math.PI*i/64;
+            double radius = (i % 2 == 0) ? 0.08 : 0.04;
+            vertices.add(new GeoLocation(this.center.latitude + radius*Math.sin(angle),
+                    this.center.longitude + radius*Math.cos(angle)));
+        }
+        this.polygonFilter = new PolygonFilter(vertices);
+    }
+
+    private int nextIndex() {
+        this.next = (this.next + 1) & (SIZE - 1);
+        return this.next;
+    }
+
+    @Benchmark
+    public double distance() {
+        return GeoUtils.distance(this.center, this.locations[this.nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean circleFilterContains() {
+        return this.circleFilter.contains(this.locations[this.nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean polygonFilterContains() {
+        return this.polygonFilter.contains(this.locations[this.nextIndex()]);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import com.wilddog.client.SyncError;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the events for one GeoQueryBatchListener and hands them to the listener in one call per dispatch window.
+ * The window starts with the first event after a dispatch; ready and error notifications end the window early, so
+ * they are always delivered after the events that preceded them.
+ */
+class BatchEventDispatcher {
+
+    private final GeoQueryBatchListener listener;
+    private final WildGeo wildGeo;
+    private final long window;
+    private List<GeoQueryEvent> pendingEvents = new ArrayList<GeoQueryEvent>();
+    private boolean dispatchScheduled;
+
+    private final Runnable dispatch = new Runnable() {
+        @Override
+        public void run() {
+            BatchEventDispatcher.this.wildGeo.eventDelivered();
+            List<GeoQueryEvent> events;
+            synchronized (BatchEventDispatcher.this) {
+                events = BatchEventDispatcher.this.pendingEvents;
+                BatchEventDispatcher.this.pendingEvents = new ArrayList<GeoQueryEvent>();
+                BatchEventDispatcher.this.dispatchScheduled = false;
+            }
+            if (!events.isEmpty()) {
+                BatchEventDispatcher.this.listener.onGeoQueryEvents(events);
+            }
+        }
+    };
+
+    BatchEventDispatcher(GeoQueryBatchListener listener, WildGeo wildGeo, long window) {
+        this.listener = listener;
+        this.wildGeo = wildGeo;
+        this.window = window;
+    }
+
+    synchronized void addEvent(GeoQueryEvent event) {
+        this.pendingEvents.add(event);
+        if (!this.dispatchScheduled) {
+            this.dispatchScheduled = true;
+            if (this.window > 0) {
+                this.wildGeo.raiseEventDelayed(this.dispatch, this.window);
+            } else {
+                this.wildGeo.raiseEvent(this.dispatch);
+            }
+        }
+    }
+
+    private void dispatchNow() {
+        if (!this.pendingEvents.isEmpty()) {
+            // a delayed dispatch that is still scheduled will find nothing left to deliver
+            this.wildGeo.raiseEvent(this.dispatch);
+        }
+    }
+
+    synchronized void ready() {
+        this.dispatchNow();
+        this.wildGeo.raiseEvent(new Runnable() {
+            @Override
+            public void run() {
+                BatchEventDispatcher.this.wildGeo.eventDelivered();
+                BatchEventDispatcher.this.listener.onGeoQueryReady();
+            }
+        });
+    }
+
+    synchronized void error(final SyncError error) {
+        this.dispatchNow();
+        this.wildGeo.raiseEvent(new Runnable() {
+            @Override
+            public void run() {
+                BatchEventDispatcher.this.wildGeo.eventDelivered();
+                BatchEventDispatcher.this.listener.onGeoQueryError(error);
+            }
+        });
+    }
+}
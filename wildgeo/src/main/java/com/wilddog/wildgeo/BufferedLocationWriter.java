@@ -0,0 +1,217 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import com.wilddog.client.SyncError;
+import com.wilddog.wildgeo.core.GeoHash;
+import com.wilddog.wildgeo.util.GeoUtils;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A BufferedLocationWriter sits in front of {@link WildGeo#setLocation(String, GeoLocation)} and coalesces location
+ * updates. Only the latest location per key is kept until the next flush, and a location is dropped if it moved less
+ * than the minimum distance since the last written location and is still in the same geohash cell the queries see.
+ * All remaining locations are written with a single
+ * {@link WildGeo#setLocations(Map, WildGeo.BatchCompletionListener)} call.
+ *
+ * The BufferedLocationWriter class is thread safe.
+ */
+public class BufferedLocationWriter {
+
+    private static class WrittenLocation {
+        final GeoLocation location;
+        final GeoHash geoHash;
+
+        WrittenLocation(GeoLocation location, GeoHash geoHash) {
+            this.location = location;
+            this.geoHash = geoHash;
+        }
+    }
+
+    private final WildGeo wildGeo;
+    private final double minDistance;
+    private final WildGeo.BatchCompletionListener completionListener;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, GeoLocation> pendingLocations = new LinkedHashMap<String, GeoLocation>();
+    private final Map<String, WrittenLocation> writtenLocations = new HashMap<String, WrittenLocation>();
+    private boolean closed;
+
+    /**
+     * Creates a new BufferedLocationWriter that writes to the given WildGeo.
+     * @param wildGeo The WildGeo the locations are written to
+     * @param flushInterval The interval in milliseconds in which pending locations are written
+     * @param minDistance The distance in kilometers a key has to move before a new location is written if its geohash
+     *                    cell did not change. The cell is compared one character shorter than the stored geohashes,
+     *                    which is the finest cell a query range can tell apart, so small moves within it are dropped
+     */
+    public BufferedLocationWriter(WildGeo wildGeo, long flushInterval, double minDistance) {
+        this(wildGeo, flushInterval, minDistance, null);
+    }
+
+    /**
+     * Creates a new BufferedLocationWriter that writes to the given WildGeo.
+     * @param wildGeo The WildGeo the locations are written to
+     * @param flushInterval The interval in milliseconds in which pending locations are written
+     * @param minDistance The distance in kilometers a key has to move before a new location is written if its geohash
+     *                    cell did not change. The cell is compared one character shorter than the stored geohashes,
+     *                    which is the finest cell a query range can tell apart, so small moves within it are dropped
+     * @param completionListener A listener that is called for every flushed batch, may be null
+     */
+    public BufferedLocationWriter(WildGeo wildGeo, long flushInterval, double minDistance,
+                                  WildGeo.BatchCompletionListener completionListener) {
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException("Flush interval must be larger than zero!");
+        }
+        if (minDistance < 0) {
+            throw new IllegalArgumentException("Minimum distance must not be negative!");
+        }
+        this.wildGeo = wildGeo;
+        // convert from kilometers to meters
+        this.minDistance = minDistance * 1000;
+        this.completionListener = completionListener;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "WildGeo-BufferedLocationWriter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the location for a given key. The location replaces any location that is still pending for this key and
+     * is written with the next flush.
+     * @param key The key to save the location for
+     * @param location The location of this key
+     */
+    public synchronized void setLocation(String key, GeoLocation location) {
+        if (key == null || location == null) {
+            throw new NullPointerException();
+        }
+        if (this.closed) {
+            throw new IllegalStateException("BufferedLocationWriter was already closed!");
+        }
+        this.pendingLocations.put(key, location);
+    }
+
+    /**
+     * Removes the location for a key immediately and discards any pending location for it.
+     * @param key The key to remove
+     */
+    public synchronized void removeLocation(String key) {
+        this.removeLocation(key, null);
+    }
+
+    /**
+     * Removes the location for a key immediately and discards any pending location for it.
+     * @param key The key to remove
+     * @param completionListener A completion listener that is called once the location is successfully removed
+     *                           from the server or an error occurred
+     */
+    public synchronized void removeLocation(String key, WildGeo.CompletionListener completionListener) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        this.pendingLocations.remove(key);
+        this.writtenLocations.remove(key);
+        this.wildGeo.removeLocation(key, completionListener);
+    }
+
+    /**
+     * Writes all pending locations that moved far enough now, instead of waiting for the next flush interval.
+     */
+    public synchronized void flush() {
+        if (this.pendingLocations.isEmpty()) {
+            return;
+        }
+        Map<String, GeoLocation> batch = new HashMap<String, GeoLocation>(this.pendingLocations.size() * 2);
+        final Map<String, WrittenLocation> batchWrites = new HashMap<String, WrittenLocation>(this.pendingLocations.size() * 2);
+        for (Map.Entry<String, GeoLocation> entry: this.pendingLocations.entrySet()) {
+            String key = entry.getKey();
+            GeoLocation location = entry.getValue();
+            // queries resolve geohashes only up to one character less than the stored precision
+            GeoHash geoHash = new GeoHash(location.latitude, location.longitude,
+                    Math.max(1, this.wildGeo.getPrecision() - 1));
+            WrittenLocation written = this.writtenLocations.get(key);
+            if (written != null && written.geoHash.equals(geoHash) &&
+                    GeoUtils.distance(written.location, location) < this.minDistance) {
+                continue;
+            }
+            WrittenLocation newWritten = new WrittenLocation(location, geoHash);
+            this.writtenLocations.put(key, newWritten);
+            batch.put(key, location);
+            batchWrites.put(key, newWritten);
+        }
+        this.pendingLocations.clear();
+        if (batch.isEmpty()) {
+            return;
+        }
+        this.wildGeo.setLocations(batch, new WildGeo.BatchCompletionListener() {
+            @Override
+            public void onComplete(Map<String, SyncError> failedKeys) {
+                synchronized (BufferedLocationWriter.this) {
+                    // forget failed writes so the next location for these keys is not filtered against them
+                    for (String key: failedKeys.keySet()) {
+                        if (BufferedLocationWriter.this.writtenLocations.get(key) == batchWrites.get(key)) {
+                            BufferedLocationWriter.this.writtenLocations.remove(key);
+                        }
+                    }
+                }
+                if (BufferedLocationWriter.this.completionListener != null) {
+                    BufferedLocationWriter.this.completionListener.onComplete(failedKeys);
+                }
+            }
+        });
+    }
+
+    /**
+     * Flushes all pending locations and stops the flush timer. No locations can be queued after closing.
+     */
+    public synchronized void close() {
+        if (!this.closed) {
+            this.flush();
+            this.closed = true;
+            this.scheduler.shutdown();
+        }
+    }
+}
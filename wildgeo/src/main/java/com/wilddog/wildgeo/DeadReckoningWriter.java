@@ -0,0 +1,190 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import com.wilddog.client.SyncError;
+import com.wilddog.wildgeo.store.WilddogGeoStore;
+import com.wilddog.wildgeo.util.GeoUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A DeadReckoningWriter sits in front of {@link WildGeo#setLocation(String, GeoLocation, GeoMotion,
+ * WildGeo.CompletionListener)} for keys that move predictably, e.g. vehicles. Every location is passed together with
+ * the speed and bearing it was measured with, but it is only written if it deviates more than the tolerance from where
+ * the last written location and motion predict the key to be, or if the last write is older than the maximal
+ * interval. Queries with dead reckoning, see {@link GeoQuery#setDeadReckoningInterval(long)}, extrapolate the
+ * locations in between, so a key moving in a straight line at constant speed is written only once per interval.
+ *
+ * Queries only learn about a key once its written location is in one of their ranges; a prefetch margin of about the
+ * distance keys travel in the maximal interval lets them see keys that drive into the query between two writes.
+ *
+ * The DeadReckoningWriter class is thread safe.
+ */
+public class DeadReckoningWriter {
+
+    private static class WrittenLocation {
+        final GeoLocation location;
+        final GeoMotion motion;
+
+        WrittenLocation(GeoLocation location, GeoMotion motion) {
+            this.location = location;
+            this.motion = motion;
+        }
+    }
+
+    private final WildGeo wildGeo;
+    private final double tolerance;
+    private final long maxInterval;
+    private final WildGeo.CompletionListener completionListener;
+    private final Map<String, WrittenLocation> writtenLocations = new HashMap<String, WrittenLocation>();
+    private long skippedCount;
+
+    /**
+     * Creates a new DeadReckoningWriter that writes to the given WildGeo.
+     * @param wildGeo The WildGeo the locations are written to
+     * @param tolerance The distance in kilometers a location may deviate from the predicted one before it is written
+     * @param maxInterval The time in milliseconds after which a location is written even if it was predicted well
+     */
+    public DeadReckoningWriter(WildGeo wildGeo, double tolerance, long maxInterval) {
+        this(wildGeo, tolerance, maxInterval, null);
+    }
+
+    /**
+     * Creates a new DeadReckoningWriter that writes to the given WildGeo.
+     *
+     * @throws IllegalArgumentException If the WildGeo stores its locations in the compact format, which can't keep
+     * the speed and bearing
+     * @param wildGeo The WildGeo the locations are written to
+     * @param tolerance The distance in kilometers a location may deviate from the predicted one before it is written
+     * @param maxInterval The time in milliseconds after which a location is written even if it was predicted well
+     * @param completionListener A listener that is called for every write, may be null
+     */
+    public DeadReckoningWriter(WildGeo wildGeo, double tolerance, long maxInterval,
+                               WildGeo.CompletionListener completionListener) {
+        if (wildGeo == null) {
+            throw new NullPointerException();
+        }
+        if (tolerance < 0) {
+            throw new IllegalArgumentException("Tolerance must not be negative!");
+        }
+        if (maxInterval <= 0) {
+            throw new IllegalArgumentException("Maximal interval must be larger than zero!");
+        }
+        if (wildGeo.getStore() instanceof WilddogGeoStore && ((WilddogGeoStore) wildGeo.getStore()).isCompact()) {
+            throw new IllegalArgumentException("The compact format stores no speed and bearing!");
+        }
+        this.wildGeo = wildGeo;
+        // convert from kilometers to meters
+        this.tolerance = tolerance * 1000;
+        this.maxInterval = maxInterval;
+        this.completionListener = completionListener;
+    }
+
+    /**
+     * Passes the location of a key measured right now, and writes it if it was not predicted well enough.
+     * @param key The key to save the location for
+     * @param location The location of this key
+     * @param speed The speed in meters per second
+     * @param bearing The direction of travel in degrees clockwise from north
+     * @return True if the location was written, false if it was predicted well enough
+     */
+    public boolean setLocation(String key, GeoLocation location, double speed, double bearing) {
+        return this.setLocation(key, location, new GeoMotion(speed, bearing, System.currentTimeMillis()));
+    }
+
+    /**
+     * Passes the location of a key together with its motion, and writes it if it was not predicted well enough.
+     * @param key The key to save the location for
+     * @param location The location of this key
+     * @param motion The speed, bearing and time of the location
+     * @return True if the location was written, false if it was predicted well enough
+     */
+    public synchronized boolean setLocation(String key, GeoLocation location, GeoMotion motion) {
+        if (key == null || location == null || motion == null) {
+            throw new NullPointerException();
+        }
+        WrittenLocation written = this.writtenLocations.get(key);
+        if (written != null && motion.timestamp - written.motion.timestamp < this.maxInterval &&
+                GeoUtils.distance(written.motion.extrapolate(written.location, motion.timestamp), location) <=
+                        this.tolerance) {
+            this.skippedCount++;
+            return false;
+        }
+        final WrittenLocation newWritten = new WrittenLocation(location, motion);
+        this.writtenLocations.put(key, newWritten);
+        this.wildGeo.setLocation(key, location, motion, new WildGeo.CompletionListener() {
+            @Override
+            public void onComplete(String key, SyncError error) {
+                if (error != null) {
+                    synchronized (DeadReckoningWriter.this) {
+                        // forget the failed write so the next location is not predicted from it
+                        if (DeadReckoningWriter.this.writtenLocations.get(key) == newWritten) {
+                            DeadReckoningWriter.this.writtenLocations.remove(key);
+                        }
+                    }
+                }
+                if (DeadReckoningWriter.this.completionListener != null) {
+                    DeadReckoningWriter.this.completionListener.onComplete(key, error);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Removes the location for a key and forgets its last written location.
+     * @param key The key to remove
+     */
+    public void removeLocation(String key) {
+        this.removeLocation(key, null);
+    }
+
+    /**
+     * Removes the location for a key and forgets its last written location.
+     * @param key The key to remove
+     * @param completionListener A completion listener that is called once the location is successfully removed
+     *                           from the server or an error occurred
+     */
+    public synchronized void removeLocation(String key, WildGeo.CompletionListener completionListener) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        this.writtenLocations.remove(key);
+        this.wildGeo.removeLocation(key, completionListener);
+    }
+
+    /**
+     * @return The number of locations that were not written because they were predicted well enough
+     */
+    public synchronized long getSkippedCount() {
+        return this.skippedCount;
+    }
+}
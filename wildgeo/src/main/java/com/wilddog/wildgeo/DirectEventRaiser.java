@@ -0,0 +1,24 @@
+package com.wilddog.wildgeo;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs events directly on the thread that raises them: the thread the Wilddog client delivers its data on, and for
+ * the events of a GeoQuery the thread of its query executor, see {@link WildGeo#setQueryExecutor(Executor)}. This
+ * avoids any thread hop, but callbacks must return quickly since they block further work. Callbacks of a GeoQuery may
+ * change the query; the change is queued and applied once the current work is done. Delayed events run on a shared
+ * timer thread.
+ */
+public class DirectEventRaiser extends ExecutorEventRaiser {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable r) {
+            r.run();
+        }
+    };
+
+    public DirectEventRaiser() {
+        super(DIRECT_EXECUTOR);
+    }
+}
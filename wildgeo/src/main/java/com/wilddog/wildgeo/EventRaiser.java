@@ -1,5 +1,22 @@
 package com.wilddog.wildgeo;
 
-interface EventRaiser {
+/**
+ * An EventRaiser decides on which thread the callbacks of WildGeo and GeoQuery are run. The default on Android posts
+ * all events to the main thread; other environments can pass their own raiser to
+ * {@link WildGeo#WildGeo(com.wilddog.client.SyncReference, EventRaiser)}.
+ */
+public interface EventRaiser {
+
+    /**
+     * Runs the callback as soon as possible.
+     * @param r The callback
+     */
     void raiseEvent(Runnable r);
+
+    /**
+     * Runs the callback after the given delay.
+     * @param r The callback
+     * @param delayMillis The delay in milliseconds
+     */
+    void raiseEventDelayed(Runnable r, long delayMillis);
 }
@@ -0,0 +1,96 @@
+package com.wilddog.wildgeo;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs events on an arbitrary Executor. With more than one thread, callbacks may run concurrently and in a different
+ * order than they were raised, so listeners must be thread safe and must not rely on e.g. an exit being delivered
+ * after the enter of the same key.
+ *
+ * Delayed events wait on a shared timer thread and are then handed to the executor.
+ */
+public class ExecutorEventRaiser implements EventRaiser {
+
+    private static ScheduledExecutorService timer;
+
+    private final Executor executor;
+
+    /**
+     * Creates an event raiser that runs all events on the given executor.
+     * @param executor The executor to run events on
+     */
+    public ExecutorEventRaiser(Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException();
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Creates an event raiser with its own pool of daemon threads. At most queueCapacity events wait for a free
+     * thread; once the queue is full, the thread raising the event runs it itself, which slows down the producer
+     * instead of dropping events or growing without bound.
+     * @param threads The number of threads, at least one
+     * @param queueCapacity The maximal number of events waiting for a thread, at least one
+     */
+    public ExecutorEventRaiser(int threads, int queueCapacity) {
+        this(newBoundedExecutor(threads, queueCapacity));
+    }
+
+    private static Executor newBoundedExecutor(int threads, int queueCapacity) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least one!");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least one!");
+        }
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "WildGeo-EventThread-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    private static synchronized ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "WildGeo-EventTimer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return timer;
+    }
+
+    @Override
+    public void raiseEvent(Runnable r) {
+        this.executor.execute(r);
+    }
+
+    @Override
+    public void raiseEventDelayed(final Runnable r, long delayMillis) {
+        getTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                ExecutorEventRaiser.this.raiseEvent(r);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+}
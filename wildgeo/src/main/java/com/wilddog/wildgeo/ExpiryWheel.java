@@ -0,0 +1,127 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A hashed timer wheel for the expiry times of keys. Keys are kept in one of a fixed number of buckets by their expiry
+ * time, so adding a key and finding the expired ones only touches the buckets that passed, no matter how many keys
+ * are waiting. A key is returned by the first advance at or after its expiry time, so advancing once per resolution
+ * finds every key at most one resolution late.
+ *
+ * A key that is added again keeps its old entry, which the caller has to ignore when it comes up. The ExpiryWheel class
+ * is not thread safe.
+ */
+class ExpiryWheel {
+
+    private final long resolution;
+    // expiry times by key, for the ticks congruent to the index of the bucket
+    private final List<Map<String, Long>> buckets;
+    // the first tick that was not completely processed, MIN_VALUE before the first advance
+    private long nextTick = Long.MIN_VALUE;
+    private int size;
+
+    /**
+     * @param resolution The time covered by one bucket, in milliseconds
+     * @param bucketCount The number of buckets
+     */
+    ExpiryWheel(long resolution, int bucketCount) {
+        this.resolution = resolution;
+        this.buckets = new ArrayList<Map<String, Long>>(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            this.buckets.add(new HashMap<String, Long>());
+        }
+    }
+
+    long getResolution() {
+        return this.resolution;
+    }
+
+    private Map<String, Long> bucket(long tick) {
+        int index = (int) (tick % this.buckets.size());
+        return this.buckets.get((index < 0) ? index + this.buckets.size() : index);
+    }
+
+    void add(String key, long expiry) {
+        // expiry times that passed already come up with the next advance
+        long tick = Math.max(expiry / this.resolution, this.nextTick);
+        Long previous = this.bucket(tick).put(key, expiry);
+        if (previous == null) {
+            this.size++;
+        }
+    }
+
+    /**
+     * Removes and returns all keys that expired at or before the given time.
+     */
+    List<String> advance(long now) {
+        List<String> expired = new ArrayList<String>();
+        long lastTick = now / this.resolution;
+        if (this.size == 0 || lastTick < this.nextTick) {
+            return expired;
+        }
+        // each bucket is visited at most once, keys of later rounds stay in their bucket
+        long ticks = (this.nextTick == Long.MIN_VALUE) ? this.buckets.size() :
+                Math.min(lastTick - this.nextTick + 1, this.buckets.size());
+        for (long i = 0; i < ticks; i++) {
+            Iterator<Map.Entry<String, Long>> iterator = this.bucket(lastTick - i).entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                if (entry.getValue() <= now) {
+                    expired.add(entry.getKey());
+                    iterator.remove();
+                    this.size--;
+                }
+            }
+        }
+        // the last tick may hold keys that expire later within the tick
+        this.nextTick = lastTick;
+        return expired;
+    }
+
+    /**
+     * @return Whether no key is waiting
+     */
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    void clear() {
+        for (Map<String, Long> bucket: this.buckets) {
+            bucket.clear();
+        }
+        this.size = 0;
+        this.nextTick = Long.MIN_VALUE;
+    }
+}
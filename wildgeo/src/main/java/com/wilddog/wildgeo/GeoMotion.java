@@ -0,0 +1,119 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import com.wilddog.wildgeo.util.GeoUtils;
+
+/**
+ * The movement of a key at the time its location was measured, used to extrapolate where the key is now. See
+ * {@link DeadReckoningWriter} and {@link GeoQuery#setDeadReckoningInterval(long)}.
+ */
+public final class GeoMotion {
+
+    /** The speed in meters per second, not negative */
+    public final double speed;
+
+    /** The direction of travel in degrees clockwise from north, in the range of [0, 360) */
+    public final double bearing;
+
+    /** The time the location was measured, in milliseconds since the epoch */
+    public final long timestamp;
+
+    /**
+     * Creates a new GeoMotion.
+     *
+     * @throws IllegalArgumentException If the speed is negative or the speed or bearing is not a finite number
+     * @param speed The speed in meters per second
+     * @param bearing The direction of travel in degrees clockwise from north
+     * @param timestamp The time the location was measured, in milliseconds since the epoch
+     */
+    public GeoMotion(double speed, double bearing, long timestamp) {
+        if (!(speed >= 0) || Double.isInfinite(speed)) {
+            throw new IllegalArgumentException("Not a valid speed: " + speed);
+        }
+        if (Double.isNaN(bearing) || Double.isInfinite(bearing)) {
+            throw new IllegalArgumentException("Not a valid bearing: " + bearing);
+        }
+        this.speed = speed;
+        double normalized = bearing % 360;
+        this.bearing = (normalized < 0) ? normalized + 360 : normalized;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Returns where a key that was at the given location at the time of this motion is at the given time, assuming it
+     * kept its speed and direction. The estimate is meant for short times, over which the earth is treated as flat
+     * around the location. Times before the timestamp return the location itself.
+     * @param location The location measured together with this motion
+     * @param time The time to extrapolate to, in milliseconds since the epoch
+     * @return The estimated location
+     */
+    public GeoLocation extrapolate(GeoLocation location, long time) {
+        if (time <= this.timestamp || this.speed == 0) {
+            return location;
+        }
+        double distance = this.speed*(time - this.timestamp)/1000;
+        double radians = Math.toRadians(this.bearing);
+        double latitude = location.latitude + GeoUtils.distanceToLatitudeDegrees(distance*Math.cos(radians));
+        double longitude = location.longitude +
+                GeoUtils.distanceToLongitudeDegrees(distance*Math.sin(radians), location.latitude);
+        return new GeoLocation(Math.max(-90, Math.min(90, latitude)), GeoUtils.wrapLongitude(longitude));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        GeoMotion that = (GeoMotion) o;
+
+        if (Double.compare(that.speed, speed) != 0) return false;
+        if (Double.compare(that.bearing, bearing) != 0) return false;
+        if (that.timestamp != timestamp) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result;
+        long temp;
+        temp = Double.doubleToLongBits(speed);
+        result = (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(bearing);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        result = 31 * result + (int) (timestamp ^ (timestamp >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "GeoMotion(" + speed + ", " + bearing + ", " + timestamp + ")";
+    }
+}
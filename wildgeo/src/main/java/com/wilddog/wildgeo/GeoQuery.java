@@ -28,80 +28,277 @@
 
 package com.wilddog.wildgeo;
 
-import com.wilddog.client.ChildEventListener;
-import com.wilddog.client.DataSnapshot;
-import com.wilddog.client.Query;
 import com.wilddog.client.SyncError;
-import com.wilddog.client.SyncReference;
-import com.wilddog.client.ValueEventListener;
 import com.wilddog.wildgeo.core.GeoHash;
+import com.wilddog.wildgeo.core.GeoHashCodec;
+import com.wilddog.wildgeo.core.GeoHashCovering;
 import com.wilddog.wildgeo.core.GeoHashQuery;
+import com.wilddog.wildgeo.store.GeoStore;
+import com.wilddog.wildgeo.util.Base32Utils;
+import com.wilddog.wildgeo.util.BoxFilter;
+import com.wilddog.wildgeo.util.CircleFilter;
+import com.wilddog.wildgeo.util.GeoArea;
 import com.wilddog.wildgeo.util.GeoUtils;
+import com.wilddog.wildgeo.util.PolygonFilter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * A GeoQuery object can be used for geo queries in a given circle. The GeoQuery class is thread safe.
+ * A GeoQuery object can be used for geo queries in a given circle, box or polygon. The GeoQuery class is thread safe.
+ *
+ * All state of a query is changed by tasks that run one at a time on a task queue of the query, instead of under a
+ * lock. The queue runs on the query executor of the WildGeo instance, see
+ * {@link WildGeo#setQueryExecutor(java.util.concurrent.Executor)}, its timers on the query timer, see
+ * {@link WildGeo#setQueryTimer(ScheduledExecutorService)}. Store callbacks, timers and the setters only queue
+ * their task and return, so they never wait for a query that is busy with other work; the getters return the criteria
+ * as last set, and the events of a change are raised once its task ran.
  */
 public class GeoQuery {
 
-    private static class LocationInfo {
+    // How a cell of the location index relates to the query area or ranges
+    private static final int CELL_OUTSIDE = GeoArea.CELL_OUTSIDE;
+    private static final int CELL_PARTIAL = GeoArea.CELL_PARTIAL;
+    private static final int CELL_INSIDE = GeoArea.CELL_INSIDE;
+
+    // Index cells are this many bits finer than the geohash queries, i.e. about 16 cells per query cell
+    private static final int LOCATION_INDEX_EXTRA_BITS = 4;
+
+    // The number of geohash queries boxes and polygons are covered with unless set otherwise
+    private static final int DEFAULT_AREA_GEOHASH_QUERIES = 8;
+
+    // How long a removed key waits for being added by another range before it is removed, in milliseconds
+    private static final long REMOVAL_GRACE_PERIOD = 100;
+
+    // How long changes are collected before a new snapshot is published, in milliseconds
+    private static final long SNAPSHOT_DELAY = 16;
+
+    // How long after it was measured a location is extrapolated at most, in milliseconds
+    private static final long DEAD_RECKONING_HORIZON = 120000;
+
+    // The expiry wheel has this many buckets, each covering this fraction of the maximal age but at least a second
+    private static final int EXPIRY_WHEEL_BUCKETS = 64;
+    private static final long MIN_EXPIRY_RESOLUTION = 1000;
+
+    private static class MovingLocation {
+        // the location and motion as stored
         final GeoLocation location;
-        final boolean inGeoQuery;
-        final GeoHash geoHash;
+        final GeoMotion motion;
 
-        public LocationInfo(GeoLocation location, boolean inGeoQuery) {
+        MovingLocation(GeoLocation location, GeoMotion motion) {
             this.location = location;
-            this.inGeoQuery = inGeoQuery;
-            this.geoHash = new GeoHash(location);
+            this.motion = motion;
         }
     }
 
-    private final ChildEventListener childEventLister = new ChildEventListener() {
+    // all state of the query is only touched by tasks of this queue
+    private final SerialTaskQueue loop;
+
+    // runs the timers below, which only queue their task on the loop; listener events never run here
+    private final ScheduledExecutorService timer;
+
+    private final Runnable publishSnapshot = new Runnable() {
         @Override
-        public void onChildAdded(DataSnapshot dataSnapshot, String s) {
-            synchronized (GeoQuery.this) {
-                GeoQuery.this.childAdded(dataSnapshot);
-            }
+        public void run() {
+            GeoQuery.this.loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    GeoQuery.this.snapshotScheduled = false;
+                    GeoQuery.this.publishSnapshot();
+                }
+            });
         }
+    };
 
+    private final Runnable extrapolate = new Runnable() {
         @Override
-        public void onChildChanged(DataSnapshot dataSnapshot, String s) {
-            synchronized (GeoQuery.this) {
-                GeoQuery.this.childChanged(dataSnapshot);
-            }
+        public void run() {
+            GeoQuery.this.loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    GeoQuery.this.deadReckoningScheduled = false;
+                    if (GeoQuery.this.deadReckoningInterval > 0 && GeoQuery.this.extrapolateLocations()) {
+                        GeoQuery.this.scheduleDeadReckoning();
+                    }
+                }
+            });
         }
+    };
 
+    private final Runnable expire = new Runnable() {
         @Override
-        public void onChildRemoved(DataSnapshot dataSnapshot) {
-            synchronized (GeoQuery.this) {
-                GeoQuery.this.childRemoved(dataSnapshot);
-            }
+        public void run() {
+            GeoQuery.this.loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    GeoQuery.this.expiryScheduled = false;
+                    GeoQuery.this.removeExpiredKeys();
+                }
+            });
+        }
+    };
+
+    private final Runnable resolveRemovals = new Runnable() {
+        @Override
+        public void run() {
+            GeoQuery.this.loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    GeoQuery.this.resolveRemovals();
+                }
+            });
+        }
+    };
+
+    // never blocks the calling store thread, the events are handled on the queue in the order they arrived
+    private final SubscriptionManager.RangeListener rangeListener = new SubscriptionManager.RangeListener() {
+        @Override
+        public void onLocationAdded(final String key, final GeoLocation location, final GeoMotion motion) {
+            GeoQuery.this.loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    GeoQuery.this.updateLocationInfo(key, location, motion, false);
+                }
+            });
+        }
+
+        @Override
+        public void onLocationChanged(final String key, final GeoLocation location, final GeoMotion motion) {
+            GeoQuery.this.loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    GeoQuery.this.updateLocationInfo(key, location, motion, false);
+                }
+            });
+        }
+
+        @Override
+        public void onLocationRemoved(final GeoHashQuery range, final String key) {
+            GeoQuery.this.loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    GeoQuery.this.childRemoved(range, key);
+                }
+            });
         }
 
         @Override
-        public synchronized void onChildMoved(DataSnapshot dataSnapshot, String s) {
-            // ignore, this should be handled by onChildChanged
+        public void onRangeReady(final GeoHashQuery range) {
+            GeoQuery.this.loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (GeoQuery.this.outstandingQueries.remove(range)) {
+                        GeoQuery.this.dropProvisionalKeys(range);
+                        GeoQuery.this.releaseQueries();
+                    }
+                    GeoQuery.this.checkAndFireReady();
+                }
+            });
         }
 
         @Override
-        public synchronized void onCancelled(SyncError syncError) {
-            // ignore, our API does not support onCancelled
+        public void onRangeError(GeoHashQuery range, final SyncError syncError) {
+            GeoQuery.this.loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    GeoQuery.this.raiseError(syncError);
+                }
+            });
         }
     };
 
     private final WildGeo wildGeo;
+    // the criteria and listeners as the callers last set them, for the getters and to reject invalid calls right
+    // away; the tasks apply them in the same order to the fields below, guarded by this
+    private volatile GeoLocation requestedCenter;
+    private volatile double requestedRadius;
+    private volatile GeoArea requestedArea;
+    private volatile double requestedPrefetchMargin;
+    private volatile int requestedMaxGeoHashQueries;
+    private volatile boolean requestedClosestFirst;
+    private volatile long requestedDeadReckoningInterval;
+    private volatile long requestedMaxAge;
+    private final Set<GeoQueryEventListener> addedEventListeners = new HashSet<GeoQueryEventListener>();
+    private final Set<GeoQueryBatchListener> addedBatchListeners = new HashSet<GeoQueryBatchListener>();
+    private final Set<GeoQueryProgressListener> addedProgressListeners = new HashSet<GeoQueryProgressListener>();
     private final Set<GeoQueryEventListener> eventListeners = new HashSet<GeoQueryEventListener>();
-    private final Map<GeoHashQuery, Query> wilddogQueries = new HashMap<GeoHashQuery, Query>();
+    private final Map<GeoQueryBatchListener, BatchEventDispatcher> batchDispatchers =
+            new HashMap<GeoQueryBatchListener, BatchEventDispatcher>();
+    private final Set<GeoQueryProgressListener> progressListeners = new HashSet<GeoQueryProgressListener>();
     private final Set<GeoHashQuery> outstandingQueries = new HashSet<GeoHashQuery>();
-    private final Map<String, LocationInfo> locationInfos = new HashMap<String, LocationInfo>();
+    private final LocationStore locations = new LocationStore();
+    private final LocationIndex locationIndex = new LocationIndex(GeoHash.DEFAULT_PRECISION, 1);
+    // center and radius of a circle query, the center is null for boxes and polygons
     private GeoLocation center;
     private double radius;
+    // membership test for the current criteria
+    private GeoArea area;
     private Set<GeoHashQuery> queries;
+    // the criteria the inGeoQuery flags of all tracked locations were last computed for
+    private GeoArea queriedArea;
+    // extra distance around the query that is subscribed as well, in meters
+    private double prefetchMargin;
+    // the area the current geohash queries were computed for
+    private GeoArea coverArea;
+    // the maximal number of geohash queries of an adaptive covering, 0 to use the fixed covering
+    private int maxGeoHashQueries;
+    // keys removed from a range that may still show up in another range; a key waits one to two grace periods
+    private Set<String> pendingRemovals = new HashSet<String>();
+    private Set<String> expiringRemovals = new HashSet<String>();
+    private boolean removalsScheduled;
+    // removed keys whose location is read from the store, as they might have moved to a range that is still loading
+    private final Set<String> readRemovals = new HashSet<String>();
+    // whether ranges are loaded and reported in the order of their distance to the center
+    private boolean closestFirst;
+    // ranges whose keys are not reported yet, closest first; a range is released once it and all before it are loaded
+    private final List<GeoHashQuery> heldQueries = new ArrayList<GeoHashQuery>();
+    // the held ranges by their first geohash; the ranges of a query never overlap, so a hash can only be held by the
+    // range that starts closest before it
+    private final TreeMap<Long, GeoHashQuery> heldRanges = new TreeMap<Long, GeoHashQuery>();
+    // keys reported from the location cache that the store did not confirm yet
+    private final Set<String> provisionalKeys = new HashSet<String>();
+    // keys stored with a motion; while dead reckoning, their tracked location is extrapolated from the stored one
+    private final Map<String, MovingLocation> movingLocations = new HashMap<String, MovingLocation>();
+    // how often moving keys are extrapolated in milliseconds, 0 if they are not
+    private long deadReckoningInterval;
+    private boolean deadReckoningScheduled;
+    // the times the locations with a motion were measured, by key
+    private final Map<String, Long> timestamps = new HashMap<String, Long>();
+    // keys measured at least this many milliseconds ago are dropped, 0 if none are
+    private long maxAge;
+    // the times keys with a timestamp expire, only used while there is a maximal age
+    private ExpiryWheel expiryWheel;
+    private boolean expiryScheduled;
+    // counters for getMetrics(), only written by tasks of the loop but read from any thread
+    private volatile int subscribedRanges;
+    private volatile int trackedLocations;
+    private volatile long locationEvents;
+    private volatile long locationEventsInQuery;
+    private volatile long enteredCount;
+    private volatile long movedCount;
+    private volatile long exitedCount;
+    private volatile long updateCount;
+    private volatile long lastUpdateNanos;
+    private volatile long readyMillis = -1;
+    // when the query started loading, valid while loading is true
+    private boolean loading;
+    private long loadingStart;
+    // the last published snapshot, null until the first one is requested
+    private volatile GeoQuerySnapshot snapshot;
+    // grows with every change of the keys in the query
+    private long version;
+    private boolean snapshotScheduled;
 
     /**
      * Creates a new GeoQuery object centered at the given location and with the given radius.
@@ -111,60 +308,360 @@ public class GeoQuery {
      */
     GeoQuery(WildGeo wildGeo, GeoLocation center, double radius) {
         this.wildGeo = wildGeo;
+        this.loop = new SerialTaskQueue(wildGeo.getQueryExecutor());
+        this.timer = wildGeo.getQueryTimer();
         this.center = center;
         // convert from kilometers to meters
         this.radius = radius * 1000;
+        this.area = new CircleFilter(this.center, this.radius);
+        this.requestedCenter = this.center;
+        this.requestedRadius = this.radius;
+        this.requestedArea = this.area;
+    }
+
+    /**
+     * Creates a new GeoQuery object for the given box or polygon.
+     * @param wildGeo The WildGeo object this GeoQuery uses
+     * @param area The area of this query
+     */
+    GeoQuery(WildGeo wildGeo, GeoArea area) {
+        this.wildGeo = wildGeo;
+        this.loop = new SerialTaskQueue(wildGeo.getQueryExecutor());
+        this.timer = wildGeo.getQueryTimer();
+        this.area = area;
+        this.requestedArea = area;
     }
 
     private boolean locationIsInQuery(GeoLocation location) {
-        return GeoUtils.distance(location, center) <= this.radius;
+        return this.area.contains(location);
     }
 
-    private void updateLocationInfo(final String key, final GeoLocation location) {
-        LocationInfo oldInfo = this.locationInfos.get(key);
-        boolean isNew = (oldInfo == null);
-        boolean changedLocation = (oldInfo != null && !oldInfo.location.equals(location));
-        boolean wasInQuery = (oldInfo != null && oldInfo.inGeoQuery);
+    private void updateLocationInfo(String key, GeoLocation storedLocation, GeoMotion motion, boolean provisional) {
+        if (provisional) {
+            this.provisionalKeys.add(key);
+        } else if (!this.provisionalKeys.isEmpty()) {
+            this.provisionalKeys.remove(key);
+        }
+        this.cancelRemoval(key);
+        if (motion != null) {
+            if (this.maxAge > 0) {
+                if (this.isExpired(motion.timestamp, System.currentTimeMillis())) {
+                    // a stale key is not tracked at all
+                    this.removeLocationInfo(key);
+                    return;
+                }
+                this.expiryWheel.add(key, motion.timestamp + this.maxAge);
+                this.scheduleExpiry();
+            }
+            this.timestamps.put(key, motion.timestamp);
+        } else if (!this.timestamps.isEmpty()) {
+            this.timestamps.remove(key);
+        }
+        // the geohash of the stored location decides which ranges the key belongs to, the extrapolated location
+        // decides whether it is in the query
+        GeoLocation location = storedLocation;
+        if (motion != null && motion.speed > 0) {
+            this.movingLocations.put(key, new MovingLocation(storedLocation, motion));
+            if (this.deadReckoningInterval > 0) {
+                location = extrapolate(storedLocation, motion, System.currentTimeMillis());
+                this.scheduleDeadReckoning();
+            }
+        } else if (!this.movingLocations.isEmpty()) {
+            this.movingLocations.remove(key);
+        }
+        int slot = this.locations.find(key);
+        boolean isNew = (slot == LocationStore.NO_SLOT);
+        boolean changedLocation = (!isNew && (Double.compare(this.locations.getLatitude(slot), location.latitude) != 0 ||
+                Double.compare(this.locations.getLongitude(slot), location.longitude) != 0));
+        boolean wasInQuery = (!isNew && this.locations.isInGeoQuery(slot));
 
         boolean isInQuery = this.locationIsInQuery(location);
-        if ((isNew || !wasInQuery) && isInQuery) {
-            for (final GeoQueryEventListener listener: this.eventListeners) {
-                this.wildGeo.raiseEvent(new Runnable() {
-                    @Override
-                    public void run() {
-                        listener.onKeyEntered(key, location);
-                    }
-                });
+        if (!provisional) {
+            this.locationEvents++;
+            if (isInQuery) {
+                this.locationEventsInQuery++;
             }
+        }
+        long geoHash = GeoHashCodec.encode(storedLocation.latitude, storedLocation.longitude,
+                GeoHash.DEFAULT_PRECISION);
+        if (isInQuery && !wasInQuery && !provisional && !this.isReleased(geoHash)) {
+            // keys of held ranges enter once all closer ranges are loaded
+            isInQuery = false;
+        }
+        if ((isNew || !wasInQuery) && isInQuery) {
+            this.raiseKeyEntered(key, location);
         } else if (!isNew && changedLocation && isInQuery) {
-            for (final GeoQueryEventListener listener: this.eventListeners) {
-                this.wildGeo.raiseEvent(new Runnable() {
-                    @Override
-                    public void run() {
-                        listener.onKeyMoved(key, location);
-                    }
-                });
+            this.raiseKeyMoved(key, location);
+        } else if (wasInQuery && !isInQuery) {
+            this.raiseKeyExited(key);
+        }
+        if (isNew) {
+            slot = this.locations.add(key, location.latitude, location.longitude, geoHash, isInQuery);
+            this.locationIndex.add(slot, geoHash);
+            this.trackedLocations = this.locations.size();
+        } else {
+            this.locationIndex.move(slot, this.locations.getGeoHash(slot), geoHash);
+            this.locations.set(slot, location.latitude, location.longitude, geoHash);
+            this.locations.setInGeoQuery(slot, isInQuery);
+        }
+    }
+
+    private static GeoLocation extrapolate(GeoLocation location, GeoMotion motion, long time) {
+        return motion.extrapolate(location, Math.min(time, motion.timestamp + DEAD_RECKONING_HORIZON));
+    }
+
+    private boolean isExtrapolated(int slot) {
+        return this.deadReckoningInterval > 0 && !this.movingLocations.isEmpty() &&
+                this.movingLocations.containsKey(this.locations.getKey(slot));
+    }
+
+    private void schedule(Runnable timerTask, long delayMillis) {
+        this.timer.schedule(timerTask, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleDeadReckoning() {
+        if (!this.deadReckoningScheduled) {
+            this.deadReckoningScheduled = true;
+            this.schedule(this.extrapolate, this.deadReckoningInterval);
+        }
+    }
+
+    /**
+     * Moves all keys with a motion to where they are now, or back to their stored location if dead reckoning is off.
+     * @return Whether any key is still moving
+     */
+    private boolean extrapolateLocations() {
+        long now = System.currentTimeMillis();
+        boolean moving = false;
+        for (Map.Entry<String, MovingLocation> entry: this.movingLocations.entrySet()) {
+            int slot = this.locations.find(entry.getKey());
+            if (slot == LocationStore.NO_SLOT) {
+                continue;
             }
+            MovingLocation movingLocation = entry.getValue();
+            if (this.deadReckoningInterval > 0) {
+                moving |= now < movingLocation.motion.timestamp + DEAD_RECKONING_HORIZON;
+                this.moveLocation(slot, extrapolate(movingLocation.location, movingLocation.motion, now));
+            } else {
+                this.moveLocation(slot, movingLocation.location);
+            }
+        }
+        return moving;
+    }
+
+    // moves a tracked key without changing the ranges it belongs to
+    private void moveLocation(int slot, GeoLocation location) {
+        String key = this.locations.getKey(slot);
+        boolean changedLocation = Double.compare(this.locations.getLatitude(slot), location.latitude) != 0 ||
+                Double.compare(this.locations.getLongitude(slot), location.longitude) != 0;
+        boolean wasInQuery = this.locations.isInGeoQuery(slot);
+        boolean isInQuery = this.locationIsInQuery(location) &&
+                (wasInQuery || this.isReleased(this.locations.getGeoHash(slot)));
+        if (!wasInQuery && isInQuery) {
+            this.raiseKeyEntered(key, location);
+        } else if (changedLocation && isInQuery) {
+            this.raiseKeyMoved(key, location);
         } else if (wasInQuery && !isInQuery) {
-            for (final GeoQueryEventListener listener: this.eventListeners) {
-                this.wildGeo.raiseEvent(new Runnable() {
-                    @Override
-                    public void run() {
-                        listener.onKeyExited(key);
-                    }
-                });
+            this.raiseKeyExited(key);
+        }
+        this.locations.set(slot, location.latitude, location.longitude, this.locations.getGeoHash(slot));
+        this.locations.setInGeoQuery(slot, isInQuery);
+    }
+
+    private boolean isExpired(long timestamp, long now) {
+        return timestamp <= now - this.maxAge;
+    }
+
+    private void scheduleExpiry() {
+        if (!this.expiryScheduled) {
+            this.expiryScheduled = true;
+            this.schedule(this.expire, this.expiryWheel.getResolution());
+        }
+    }
+
+    private void removeExpiredKeys() {
+        if (this.maxAge <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (String key: this.expiryWheel.advance(now)) {
+            // keys that were updated since they were added come up with their old expiry time as well
+            Long timestamp = this.timestamps.get(key);
+            if (timestamp != null && this.isExpired(timestamp, now)) {
+                this.removeLocationInfo(key);
             }
         }
-        LocationInfo newInfo = new LocationInfo(location, this.locationIsInQuery(location));
-        this.locationInfos.put(key, newInfo);
+        if (!this.expiryWheel.isEmpty()) {
+            this.scheduleExpiry();
+        }
     }
 
-    private boolean geoHashQueriesContainGeoHash(GeoHash geoHash) {
+    private void raiseKeyEntered(final String key, final GeoLocation location) {
+        this.enteredCount++;
+        this.snapshotChanged();
+        for (final GeoQueryEventListener listener: this.eventListeners) {
+            this.wildGeo.raiseEvent(new Runnable() {
+                @Override
+                public void run() {
+                    GeoQuery.this.wildGeo.eventDelivered();
+                    listener.onKeyEntered(key, location);
+                }
+            });
+        }
+        this.raiseBatchEvent(GeoQueryEvent.Type.ENTERED, key, location);
+    }
+
+    private void raiseKeyMoved(final String key, final GeoLocation location) {
+        this.movedCount++;
+        this.snapshotChanged();
+        for (final GeoQueryEventListener listener: this.eventListeners) {
+            this.wildGeo.raiseEvent(new Runnable() {
+                @Override
+                public void run() {
+                    GeoQuery.this.wildGeo.eventDelivered();
+                    listener.onKeyMoved(key, location);
+                }
+            });
+        }
+        this.raiseBatchEvent(GeoQueryEvent.Type.MOVED, key, location);
+    }
+
+    private void raiseKeyExited(final String key) {
+        this.exitedCount++;
+        this.snapshotChanged();
+        for (final GeoQueryEventListener listener: this.eventListeners) {
+            this.wildGeo.raiseEvent(new Runnable() {
+                @Override
+                public void run() {
+                    GeoQuery.this.wildGeo.eventDelivered();
+                    listener.onKeyExited(key);
+                }
+            });
+        }
+        this.raiseBatchEvent(GeoQueryEvent.Type.EXITED, key, null);
+    }
+
+    private void snapshotChanged() {
+        this.version++;
+        if (this.snapshot != null && !this.snapshotScheduled) {
+            this.snapshotScheduled = true;
+            this.schedule(this.publishSnapshot, SNAPSHOT_DELAY);
+        }
+    }
+
+    private void publishSnapshot() {
+        Map<String, GeoLocation> inQuery = new HashMap<String, GeoLocation>();
+        for (int slot = 0; slot < this.locations.getSlotCount(); slot++) {
+            if (this.locations.isUsed(slot) && this.locations.isInGeoQuery(slot)) {
+                inQuery.put(this.locations.getKey(slot), this.locations.getLocation(slot));
+            }
+        }
+        this.snapshot = new GeoQuerySnapshot(this.version, this.queries != null && this.canFireReady(), inQuery);
+    }
+
+    private void raiseBatchEvent(GeoQueryEvent.Type type, String key, GeoLocation location) {
+        if (!this.batchDispatchers.isEmpty()) {
+            GeoQueryEvent event = new GeoQueryEvent(type, key, location);
+            for (BatchEventDispatcher dispatcher: this.batchDispatchers.values()) {
+                dispatcher.addEvent(event);
+            }
+        }
+    }
+
+    private void raiseError(final SyncError error) {
+        for (final GeoQueryEventListener listener : this.eventListeners) {
+            this.wildGeo.raiseEvent(new Runnable() {
+                @Override
+                public void run() {
+                    GeoQuery.this.wildGeo.eventDelivered();
+                    listener.onGeoQueryError(error);
+                }
+            });
+        }
+        for (BatchEventDispatcher dispatcher: this.batchDispatchers.values()) {
+            dispatcher.error(error);
+        }
+    }
+
+    private void removeLocationInfo(String key) {
+        int slot = this.locations.find(key);
+        if (slot != LocationStore.NO_SLOT) {
+            this.removeLocationInfo(slot);
+        }
+    }
+
+    private void removeLocationInfo(int slot) {
+        String key = this.locations.getKey(slot);
+        this.cancelRemoval(key);
+        if (!this.movingLocations.isEmpty()) {
+            this.movingLocations.remove(key);
+        }
+        if (!this.timestamps.isEmpty()) {
+            this.timestamps.remove(key);
+        }
+        boolean wasInQuery = this.locations.isInGeoQuery(slot);
+        this.locationIndex.remove(slot, this.locations.getGeoHash(slot));
+        this.locations.remove(slot);
+        this.trackedLocations = this.locations.size();
+        if (wasInQuery) {
+            this.raiseKeyExited(key);
+        }
+    }
+
+    private void setInGeoQuery(int slot, boolean isInQuery) {
+        if (this.locations.isInGeoQuery(slot) == isInQuery) {
+            return;
+        }
+        if (isInQuery) {
+            this.raiseKeyEntered(this.locations.getKey(slot), this.locations.getLocation(slot));
+        } else {
+            this.raiseKeyExited(this.locations.getKey(slot));
+        }
+        this.locations.setInGeoQuery(slot, isInQuery);
+    }
+
+    private static int cellAreaStatus(LocationIndex.Cell cell, GeoArea area) {
+        double[] bounds = cell.bounds;
+        return area.relateToCell(bounds[0], bounds[1], bounds[2], bounds[3]);
+    }
+
+    private int cellRangeStatus(LocationIndex.Cell cell) {
+        long from = this.locationIndex.cellStart(cell);
+        long to = this.locationIndex.cellEnd(cell);
+        int precision = this.locationIndex.getHashPrecision();
+        int status = CELL_OUTSIDE;
+        for (GeoHashQuery query: this.queries) {
+            if (query.containsRange(from, to, precision)) {
+                return CELL_INSIDE;
+            } else if (query.intersectsRange(from, to, precision)) {
+                status = CELL_PARTIAL;
+            }
+        }
+        return status;
+    }
+
+    private void updateLocationIndexResolution() {
+        int hashBits = GeoHash.DEFAULT_PRECISION*Base32Utils.BITS_PER_BASE32_CHAR;
+        int cellBits = GeoHashQuery.Utils.bitsForBoundingBox(this.area.getCenter(), this.area.getSize()) +
+                LOCATION_INDEX_EXTRA_BITS;
+        cellBits = Math.max(1, Math.min(hashBits, cellBits));
+        // only rebuild for larger changes, small radius changes work fine on the current cells
+        if (Math.abs(cellBits - this.locationIndex.getCellBits()) > 2) {
+            this.locationIndex.reset(cellBits);
+            for (int slot = 0; slot < this.locations.getSlotCount(); slot++) {
+                if (this.locations.isUsed(slot)) {
+                    this.locationIndex.add(slot, this.locations.getGeoHash(slot));
+                }
+            }
+        }
+    }
+
+    private boolean geoHashQueriesContainGeoHash(long geoHash) {
         if (this.queries == null) {
             return false;
         }
         for (GeoHashQuery query: this.queries) {
-            if (query.containsGeoHash(geoHash)) {
+            if (query.containsGeoHash(geoHash, GeoHash.DEFAULT_PRECISION)) {
                 return true;
             }
         }
@@ -172,17 +669,37 @@ public class GeoQuery {
     }
 
     private void reset() {
-        for(Map.Entry<GeoHashQuery, Query> entry: this.wilddogQueries.entrySet()) {
-            entry.getValue().removeEventListener(this.childEventLister);
+        if (this.queries != null) {
+            for (GeoHashQuery query: this.queries) {
+                this.wildGeo.getSubscriptionManager().unsubscribe(query, this.rangeListener);
+            }
         }
         this.outstandingQueries.clear();
-        this.wilddogQueries.clear();
         this.queries = null;
-        this.locationInfos.clear();
+        this.subscribedRanges = 0;
+        this.locations.clear();
+        this.trackedLocations = 0;
+        this.pendingRemovals.clear();
+        this.expiringRemovals.clear();
+        this.readRemovals.clear();
+        this.provisionalKeys.clear();
+        this.movingLocations.clear();
+        this.timestamps.clear();
+        if (this.expiryWheel != null) {
+            this.expiryWheel.clear();
+        }
+        this.heldQueries.clear();
+        this.heldRanges.clear();
+        this.locationIndex.reset(this.locationIndex.getCellBits());
+        this.queriedArea = null;
+        this.coverArea = null;
+        this.loading = false;
+        this.version++;
+        this.snapshot = null;
     }
 
     private boolean hasListeners() {
-        return !this.eventListeners.isEmpty();
+        return !this.eventListeners.isEmpty() || !this.batchDispatchers.isEmpty();
     }
 
     private boolean canFireReady() {
@@ -191,130 +708,388 @@ public class GeoQuery {
 
     private void checkAndFireReady() {
         if (canFireReady()) {
+            if (this.loading) {
+                this.loading = false;
+                this.readyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.loadingStart);
+                MetricsSink sink = this.wildGeo.getMetricsSink();
+                if (sink != null) {
+                    sink.onGeoQueryReady(this, this.readyMillis);
+                }
+            }
+            if (this.snapshot != null) {
+                // readers in onGeoQueryReady see all keys that were loaded
+                this.publishSnapshot();
+            }
             for (final GeoQueryEventListener listener: this.eventListeners) {
                 this.wildGeo.raiseEvent(new Runnable() {
                     @Override
                     public void run() {
+                        GeoQuery.this.wildGeo.eventDelivered();
                         listener.onGeoQueryReady();
                     }
                 });
             }
+            for (BatchEventDispatcher dispatcher: this.batchDispatchers.values()) {
+                dispatcher.ready();
+            }
         }
     }
 
-    private void addValueToReadyListener(final Query wilddog, final GeoHashQuery query) {
-        wilddog.addListenerForSingleValueEvent(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                synchronized (GeoQuery.this) {
-                    GeoQuery.this.outstandingQueries.remove(query);
-                    GeoQuery.this.checkAndFireReady();
-                }
-            }
+    private boolean coverContainsQuery() {
+        if (this.prefetchMargin <= 0 || this.coverArea == null) {
+            return false;
+        }
+        if (this.center != null && this.coverArea instanceof CircleFilter) {
+            CircleFilter cover = (CircleFilter) this.coverArea;
+            return GeoUtils.distance(this.center, cover.getCenter()) + this.radius <= cover.getRadius();
+        }
+        double[] box = this.area.getBoundingBox();
+        if (box[2] > box[3]) {
+            // the box crosses the 180th meridian
+            return this.coverArea.relateToCell(box[0], box[1], box[2], 180) == CELL_INSIDE &&
+                    this.coverArea.relateToCell(box[0], box[1], -180, box[3]) == CELL_INSIDE;
+        }
+        return this.coverArea.relateToCell(box[0], box[1], box[2], box[3]) == CELL_INSIDE;
+    }
 
-            @Override
-            public void onCancelled(final SyncError syncError) {
-                synchronized (GeoQuery.this) {
-                    for (final GeoQueryEventListener listener : GeoQuery.this.eventListeners) {
-                        GeoQuery.this.wildGeo.raiseEvent(new Runnable() {
-                            @Override
-                            public void run() {
-                                listener.onGeoQueryError(syncError);
-                            }
-                        });
-                    }
-                }
-            }
-        });
+    private GeoArea coverArea() {
+        if (this.center != null) {
+            return new CircleFilter(this.center, this.radius + this.prefetchMargin);
+        } else if (this.prefetchMargin > 0) {
+            double[] box = this.area.getBoundingBox();
+            return new BoxFilter(box[0], box[1], box[2], box[3]).expand(this.prefetchMargin);
+        } else {
+            return this.area;
+        }
     }
 
     private void setupQueries() {
+        long start = System.nanoTime();
+        if (!this.loading) {
+            this.loading = true;
+            this.loadingStart = start;
+        }
         Set<GeoHashQuery> oldQueries = (this.queries == null) ? new HashSet<GeoHashQuery>() : this.queries;
-        Set<GeoHashQuery> newQueries = GeoHashQuery.queriesAtLocation(center, radius);
+        Set<GeoHashQuery> newQueries;
+        if (this.queries != null && this.coverContainsQuery()) {
+            // the query is still inside the prefetched area, keep all subscriptions
+            newQueries = this.queries;
+        } else {
+            this.coverArea = this.coverArea();
+            // ranges must also be coarser than the geohashes the tracked locations are indexed by
+            int precision = Math.min(this.wildGeo.getPrecision(), GeoHash.DEFAULT_PRECISION);
+            if (this.maxGeoHashQueries > 0) {
+                newQueries = GeoHashCovering.forArea(this.coverArea, this.maxGeoHashQueries, precision).getQueries();
+            } else if (this.center != null) {
+                newQueries = GeoHashQuery.queriesAtLocation(this.center, this.radius + this.prefetchMargin, precision);
+            } else {
+                newQueries = GeoHashCovering.forArea(this.coverArea, DEFAULT_AREA_GEOHASH_QUERIES, precision)
+                        .getQueries();
+            }
+        }
         this.queries = newQueries;
+        this.subscribedRanges = newQueries.size();
         for (GeoHashQuery query: oldQueries) {
             if (!newQueries.contains(query)) {
-                wilddogQueries.get(query).removeEventListener(this.childEventLister);
-                wilddogQueries.remove(query);
+                this.wildGeo.getSubscriptionManager().unsubscribe(query, this.rangeListener);
                 outstandingQueries.remove(query);
             }
         }
-        for (final GeoHashQuery query: newQueries) {
+        List<GeoHashQuery> addedQueries = new ArrayList<GeoHashQuery>();
+        for (GeoHashQuery query: newQueries) {
             if (!oldQueries.contains(query)) {
-                outstandingQueries.add(query);
-                SyncReference syncReference = this.wildGeo.getSyncReference();
-                Query wilddogQuery = syncReference.orderByChild("g").startAt(query.getStartValue()).endAt(query.getEndValue());
-                wilddogQuery.addChildEventListener(this.childEventLister);
-                addValueToReadyListener(wilddogQuery, query);
-                wilddogQueries.put(query, wilddogQuery);
+                addedQueries.add(query);
+            }
+        }
+        this.heldQueries.retainAll(newQueries);
+        this.heldRanges.values().retainAll(newQueries);
+        if (this.closestFirst) {
+            // subscribe to the closest ranges first, and report their keys before the keys of ranges farther away
+            Collections.sort(addedQueries, this.byDistance());
+            this.heldQueries.addAll(addedQueries);
+            Collections.sort(this.heldQueries, this.byDistance());
+            for (GeoHashQuery query: addedQueries) {
+                this.heldRanges.put(query.lowerBound(GeoHash.DEFAULT_PRECISION), query);
             }
         }
-        for(Map.Entry<String, LocationInfo> info: this.locationInfos.entrySet()) {
-            LocationInfo oldLocationInfo = info.getValue();
-            this.updateLocationInfo(info.getKey(), oldLocationInfo.location);
+        // all new ranges are outstanding before the first one is subscribed, a range that is already loaded by
+        // another query reports ready right away and must not make the whole query ready
+        outstandingQueries.addAll(addedQueries);
+        for (GeoHashQuery query: addedQueries) {
+            this.wildGeo.getSubscriptionManager().subscribe(query, this.rangeListener);
         }
-        // remove locations that are not part of the geo query anymore
-        Iterator<Map.Entry<String, LocationInfo>> it = this.locationInfos.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, LocationInfo> entry = it.next();
-            if (!this.geoHashQueriesContainGeoHash(entry.getValue().geoHash)) {
-                it.remove();
+        this.addProvisionalKeys(addedQueries);
+        this.updateLocationIndexResolution();
+        // only keys in cells crossed by the old or new area or by a query boundary need to be checked one by one
+        for (LocationIndex.Cell cell: this.locationIndex.cells()) {
+            int rangeStatus = this.cellRangeStatus(cell);
+            if (rangeStatus == CELL_OUTSIDE) {
+                // remove locations that are not part of the geo query anymore
+                for (int slot: cell.copySlots()) {
+                    this.removeLocationInfo(slot);
+                }
+                continue;
+            }
+            int newStatus = cellAreaStatus(cell, this.area);
+            int oldStatus = (this.queriedArea == null) ? CELL_PARTIAL : cellAreaStatus(cell, this.queriedArea);
+            if (newStatus == CELL_PARTIAL || newStatus != oldStatus) {
+                for (int slot: cell.copySlots()) {
+                    if (this.isExtrapolated(slot)) {
+                        // may have left its cell, checked below
+                        continue;
+                    }
+                    boolean isInQuery = (newStatus == CELL_INSIDE) || (newStatus == CELL_PARTIAL &&
+                            this.area.contains(this.locations.getLatitude(slot), this.locations.getLongitude(slot)));
+                    if (isInQuery && !this.locations.isInGeoQuery(slot) &&
+                            !this.isReleased(this.locations.getGeoHash(slot))) {
+                        isInQuery = false;
+                    }
+                    this.setInGeoQuery(slot, isInQuery);
+                }
+            }
+            if (rangeStatus == CELL_PARTIAL) {
+                for (int slot: cell.copySlots()) {
+                    if (!this.geoHashQueriesContainGeoHash(this.locations.getGeoHash(slot))) {
+                        this.removeLocationInfo(slot);
+                    }
+                }
             }
         }
+        this.queriedArea = this.area;
+        if (this.deadReckoningInterval > 0) {
+            this.extrapolateLocations();
+        }
 
+        this.updateCount++;
+        this.lastUpdateNanos = System.nanoTime() - start;
+        MetricsSink sink = this.wildGeo.getMetricsSink();
+        if (sink != null) {
+            sink.onGeoQueryUpdated(this, this.queries.size(), this.lastUpdateNanos);
+        }
+        // a new center can move ranges that are loaded already to the front
+        this.releaseQueries();
         checkAndFireReady();
     }
 
-    private void childAdded(DataSnapshot dataSnapshot) {
-        GeoLocation location = WildGeo.getLocationValue(dataSnapshot);
-        if (location != null) {
-            this.updateLocationInfo(dataSnapshot.getKey(), location);
-        } else {
-            // throw an error in future?
+    private boolean isReleased(long geoHash) {
+        Map.Entry<Long, GeoHashQuery> held = this.heldRanges.floorEntry(geoHash);
+        return held == null || !held.getValue().containsGeoHash(geoHash, GeoHash.DEFAULT_PRECISION);
+    }
+
+    private static double distanceToRange(GeoLocation from, GeoHashQuery range) {
+        double[] box = range.getBoundingBox();
+        return GeoUtils.minDistanceToBox(from.latitude, from.longitude, box[0], box[1], box[2], box[3]);
+    }
+
+    private Comparator<GeoHashQuery> byDistance() {
+        final GeoLocation from = this.area.getCenter();
+        final Map<GeoHashQuery, Double> distances = new HashMap<GeoHashQuery, Double>();
+        return new Comparator<GeoHashQuery>() {
+            @Override
+            public int compare(GeoHashQuery query1, GeoHashQuery query2) {
+                return Double.compare(this.distance(query1), this.distance(query2));
+            }
+
+            private double distance(GeoHashQuery query) {
+                Double distance = distances.get(query);
+                if (distance == null) {
+                    distance = distanceToRange(from, query);
+                    distances.put(query, distance);
+                }
+                return distance;
+            }
+        };
+    }
+
+    private void releaseQueries() {
+        List<GeoHashQuery> released = new ArrayList<GeoHashQuery>();
+        while (!this.heldQueries.isEmpty() &&
+                (!this.closestFirst || !this.outstandingQueries.contains(this.heldQueries.get(0)))) {
+            GeoHashQuery query = this.heldQueries.remove(0);
+            this.heldRanges.remove(query.lowerBound(GeoHash.DEFAULT_PRECISION));
+            released.add(query);
+        }
+        if (released.isEmpty()) {
+            return;
+        }
+        final GeoLocation from = this.area.getCenter();
+        List<NearestLocation> entering = new ArrayList<NearestLocation>();
+        final Map<String, Integer> slots = new HashMap<String, Integer>();
+        // only the keys in cells overlapping a released range can enter
+        for (GeoHashQuery query: released) {
+            long rangeStart = query.lowerBound(this.locationIndex.getHashPrecision());
+            long rangeEnd = query.upperBound(this.locationIndex.getHashPrecision());
+            List<LocationIndex.Cell> cells = (rangeStart == GeoHashQuery.NO_BITS || rangeEnd == GeoHashQuery.NO_BITS) ?
+                    this.locationIndex.cells() : this.locationIndex.cellsInRange(rangeStart, rangeEnd);
+            for (LocationIndex.Cell cell: cells) {
+                for (int i = 0; i < cell.size; i++) {
+                    int slot = cell.slots[i];
+                    if (this.locations.isInGeoQuery(slot) ||
+                            !query.containsGeoHash(this.locations.getGeoHash(slot), GeoHash.DEFAULT_PRECISION)) {
+                        continue;
+                    }
+                    GeoLocation location = this.locations.getLocation(slot);
+                    if (this.locationIsInQuery(location)) {
+                        String key = this.locations.getKey(slot);
+                        entering.add(new NearestLocation(key, location, GeoUtils.distance(from, location)));
+                        slots.put(key, slot);
+                    }
+                }
+            }
+        }
+        Collections.sort(entering, NearestLocation.BY_DISTANCE);
+        for (NearestLocation location: entering) {
+            this.setInGeoQuery(slots.get(location.getKey()), true);
+        }
+        final int loadedRanges = this.queries.size() - this.heldQueries.size();
+        final int totalRanges = this.queries.size();
+        // every key closer than the closest held range was reported, convert to kilometers
+        final double completeDistance = this.heldQueries.isEmpty() ? Double.POSITIVE_INFINITY :
+                distanceToRange(from, this.heldQueries.get(0))/1000;
+        for (final GeoQueryProgressListener listener: this.progressListeners) {
+            this.wildGeo.raiseEvent(new Runnable() {
+                @Override
+                public void run() {
+                    GeoQuery.this.wildGeo.eventDelivered();
+                    listener.onGeoQueryProgress(loadedRanges, totalRanges, completeDistance);
+                }
+            });
         }
     }
 
-    private void childChanged(DataSnapshot dataSnapshot) {
-        GeoLocation location = WildGeo.getLocationValue(dataSnapshot);
-        if (location != null) {
-            this.updateLocationInfo(dataSnapshot.getKey(), location);
-        } else {
-            // throw an error in future?
+    private void addProvisionalKeys(List<GeoHashQuery> ranges) {
+        LocationCache cache = this.wildGeo.getLocationCache();
+        if (cache == null) {
+            return;
+        }
+        for (GeoHashQuery range: ranges) {
+            // ranges that are loaded already reported their live locations
+            if (this.outstandingQueries.contains(range)) {
+                for (Map.Entry<String, GeoLocation> entry: cache.getLocations(range).entrySet()) {
+                    if (this.locations.find(entry.getKey()) == LocationStore.NO_SLOT) {
+                        this.updateLocationInfo(entry.getKey(), entry.getValue(), null, true);
+                    }
+                }
+            }
         }
     }
 
-    private void childRemoved(DataSnapshot dataSnapshot) {
-        final String key = dataSnapshot.getKey();
-        final LocationInfo info = this.locationInfos.get(key);
-        if (info != null) {
-            this.wildGeo.wilddogRefForKey(key).addListenerForSingleValueEvent(new ValueEventListener() {
-                @Override
-                public void onDataChange(DataSnapshot dataSnapshot) {
-                    synchronized(GeoQuery.this) {
-                        GeoLocation location = WildGeo.getLocationValue(dataSnapshot);
-                        GeoHash hash = (location != null) ? new GeoHash(location) : null;
-                        if (hash == null || !GeoQuery.this.geoHashQueriesContainGeoHash(hash)) {
-                            final LocationInfo info = GeoQuery.this.locationInfos.get(key);
-                            GeoQuery.this.locationInfos.remove(key);
-                            if (info != null && info.inGeoQuery) {
-                                for (final GeoQueryEventListener listener: GeoQuery.this.eventListeners) {
-                                    GeoQuery.this.wildGeo.raiseEvent(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            listener.onKeyExited(key);
-                                        }
-                                    });
-                                }
+    private void dropProvisionalKeys(GeoHashQuery range) {
+        if (this.provisionalKeys.isEmpty()) {
+            return;
+        }
+        LocationCache cache = this.wildGeo.getLocationCache();
+        Iterator<String> iterator = this.provisionalKeys.iterator();
+        while (iterator.hasNext()) {
+            String key = iterator.next();
+            int slot = this.locations.find(key);
+            if (slot == LocationStore.NO_SLOT) {
+                iterator.remove();
+            } else if (range.containsGeoHash(this.locations.getGeoHash(slot), GeoHash.DEFAULT_PRECISION)) {
+                // the range is loaded and the store did not report the key in it
+                iterator.remove();
+                this.removeLocationInfo(slot);
+                if (cache != null) {
+                    cache.removeInRange(range, key);
+                }
+            }
+        }
+    }
+
+    private void childRemoved(GeoHashQuery range, String key) {
+        int slot = this.locations.find(key);
+        if (slot == LocationStore.NO_SLOT) {
+            return;
+        }
+        long geoHash = this.locations.getGeoHash(slot);
+        if (!range.containsGeoHash(geoHash, GeoHash.DEFAULT_PRECISION) && this.geoHashQueriesContainGeoHash(geoHash)) {
+            // the key moved to another of our ranges, which already reported the new location
+            return;
+        }
+        // the key was deleted, moved out of all our ranges, or moved to a range that did not report it yet
+        this.pendingRemovals.add(key);
+        if (!this.removalsScheduled) {
+            this.removalsScheduled = true;
+            this.schedule(this.resolveRemovals, REMOVAL_GRACE_PERIOD);
+        }
+    }
+
+    private void cancelRemoval(String key) {
+        if (this.removalsScheduled) {
+            this.pendingRemovals.remove(key);
+            this.expiringRemovals.remove(key);
+        }
+        if (!this.readRemovals.isEmpty()) {
+            this.readRemovals.remove(key);
+        }
+    }
+
+    private void resolveRemovals() {
+        Set<String> expired = this.expiringRemovals;
+        this.expiringRemovals = this.pendingRemovals;
+        this.pendingRemovals = new HashSet<String>();
+        List<String> ambiguous = null;
+        for (String key: expired) {
+            if (this.canFireReady()) {
+                // all ranges are loaded and none of them reported the key again
+                this.removeLocationInfo(key);
+            } else if (this.locations.find(key) != LocationStore.NO_SLOT && this.readRemovals.add(key)) {
+                // a range that is still loading might contain the key, ask the server
+                if (ambiguous == null) {
+                    ambiguous = new ArrayList<String>();
+                }
+                ambiguous.add(key);
+            }
+        }
+        if (ambiguous != null) {
+            this.readRemovedLocations(ambiguous);
+        }
+        this.removalsScheduled = !this.expiringRemovals.isEmpty();
+        if (this.removalsScheduled) {
+            this.schedule(this.resolveRemovals, REMOVAL_GRACE_PERIOD);
+        }
+    }
+
+    private void readRemovedLocations(final List<String> keys) {
+        this.wildGeo.getStore().read(keys, new GeoStore.BatchReadCallback() {
+            @Override
+            public void onLocationsResult(final Map<String, GeoLocation> locations) {
+                GeoQuery.this.loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (String key: keys) {
+                            GeoLocation location = locations.get(key);
+                            if (location == null || !GeoQuery.this.geoHashQueriesContainGeoHash(GeoHashCodec.encode(
+                                    location.latitude, location.longitude, GeoHash.DEFAULT_PRECISION))) {
+                                GeoQuery.this.removeReadRemoval(key);
+                            } else {
+                                // the range the key moved to reports it once it is loaded
+                                GeoQuery.this.readRemovals.remove(key);
                             }
                         }
                     }
-                }
+                });
+            }
 
-                @Override
-                public void onCancelled(SyncError syncError) {
-                    // tough luck
-                }
-            });
+            @Override
+            public void onError(SyncError error) {
+                GeoQuery.this.loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // if a key moved to a range that is still loading, the range reports it again once loaded
+                        for (String key: keys) {
+                            GeoQuery.this.removeReadRemoval(key);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void removeReadRemoval(String key) {
+        // keys that were reported again while they were read stay
+        if (this.readRemovals.remove(key)) {
+            this.removeLocationInfo(key);
         }
     }
 
@@ -326,34 +1101,114 @@ public class GeoQuery {
      * @param listener The listener to add
      */
     public synchronized void addGeoQueryEventListener(final GeoQueryEventListener listener) {
-        if (eventListeners.contains(listener)) {
+        if (!this.addedEventListeners.add(listener)) {
             throw new IllegalArgumentException("Added the same listener twice to a GeoQuery!");
         }
-        eventListeners.add(listener);
-        if (this.queries == null) {
-            this.setupQueries();
-        } else {
-            for (final Map.Entry<String, LocationInfo> entry: this.locationInfos.entrySet()) {
-                final String key = entry.getKey();
-                final LocationInfo info = entry.getValue();
-                if (info.inGeoQuery) {
-                    this.wildGeo.raiseEvent(new Runnable() {
-                        @Override
-                        public void run() {
-                            listener.onKeyEntered(key, info.location);
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                eventListeners.add(listener);
+                if (GeoQuery.this.queries == null) {
+                    GeoQuery.this.setupQueries();
+                } else {
+                    for (int slot = 0; slot < GeoQuery.this.locations.getSlotCount(); slot++) {
+                        if (GeoQuery.this.locations.isUsed(slot) && GeoQuery.this.locations.isInGeoQuery(slot)) {
+                            final String key = GeoQuery.this.locations.getKey(slot);
+                            final GeoLocation location = GeoQuery.this.locations.getLocation(slot);
+                            GeoQuery.this.wildGeo.raiseEvent(new Runnable() {
+                                @Override
+                                public void run() {
+                                    GeoQuery.this.wildGeo.eventDelivered();
+                                    listener.onKeyEntered(key, location);
+                                }
+                            });
                         }
-                    });
+                    }
+                    if (GeoQuery.this.canFireReady()) {
+                        GeoQuery.this.wildGeo.raiseEvent(new Runnable() {
+                            @Override
+                            public void run() {
+                                GeoQuery.this.wildGeo.eventDelivered();
+                                listener.onGeoQueryReady();
+                            }
+                        });
+                    }
                 }
             }
-            if (this.canFireReady()) {
-                this.wildGeo.raiseEvent(new Runnable() {
-                    @Override
-                    public void run() {
-                        listener.onGeoQueryReady();
+        });
+    }
+
+    /**
+     * Adds a new GeoQueryBatchListener to this GeoQuery. Events are delivered as soon as the event thread gets to
+     * them, with all events that piled up until then in a single call.
+     *
+     * @throws IllegalArgumentException If this listener was already added
+     *
+     * @param listener The listener to add
+     */
+    public void addGeoQueryBatchListener(GeoQueryBatchListener listener) {
+        this.addGeoQueryBatchListener(listener, 0);
+    }
+
+    /**
+     * Adds a new GeoQueryBatchListener to this GeoQuery. Events are collected for the given time after the first
+     * event and then delivered in a single call, e.g. use 16 milliseconds to deliver them about once per frame.
+     *
+     * @throws IllegalArgumentException If this listener was already added
+     *
+     * @param listener The listener to add
+     * @param window The time in milliseconds events are collected before they are delivered
+     */
+    public synchronized void addGeoQueryBatchListener(final GeoQueryBatchListener listener, final long window) {
+        if (window < 0) {
+            throw new IllegalArgumentException("Dispatch window must not be negative!");
+        }
+        if (!this.addedBatchListeners.add(listener)) {
+            throw new IllegalArgumentException("Added the same listener twice to a GeoQuery!");
+        }
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                BatchEventDispatcher dispatcher = new BatchEventDispatcher(listener, GeoQuery.this.wildGeo,
+                        window);
+                batchDispatchers.put(listener, dispatcher);
+                if (GeoQuery.this.queries == null) {
+                    GeoQuery.this.setupQueries();
+                } else {
+                    for (int slot = 0; slot < GeoQuery.this.locations.getSlotCount(); slot++) {
+                        if (GeoQuery.this.locations.isUsed(slot) && GeoQuery.this.locations.isInGeoQuery(slot)) {
+                            dispatcher.addEvent(new GeoQueryEvent(GeoQueryEvent.Type.ENTERED,
+                                    GeoQuery.this.locations.getKey(slot), GeoQuery.this.locations.getLocation(slot)));
+                        }
                     }
-                });
+                    if (GeoQuery.this.canFireReady()) {
+                        dispatcher.ready();
+                    }
+                }
             }
+        });
+    }
+
+    /**
+     * Removes a batch listener.
+     *
+     * @throws IllegalArgumentException If the listener was removed already or never added
+     *
+     * @param listener The listener to remove
+     */
+    public synchronized void removeGeoQueryBatchListener(final GeoQueryBatchListener listener) {
+        if (!this.addedBatchListeners.remove(listener)) {
+            throw new IllegalArgumentException("Trying to remove listener that was removed or not added!");
         }
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                batchDispatchers.remove(listener);
+                if (!GeoQuery.this.hasListeners()) {
+                    reset();
+                }
+            }
+        });
     }
 
     /**
@@ -363,61 +1218,408 @@ public class GeoQuery {
      *
      * @param listener The listener to remove
      */
-    public synchronized void removeGeoQueryEventListener(GeoQueryEventListener listener) {
-        if (!eventListeners.contains(listener)) {
+    public synchronized void removeGeoQueryEventListener(final GeoQueryEventListener listener) {
+        if (!this.addedEventListeners.remove(listener)) {
             throw new IllegalArgumentException("Trying to remove listener that was removed or not added!");
         }
-        eventListeners.remove(listener);
-        if (!this.hasListeners()) {
-            reset();
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                eventListeners.remove(listener);
+                if (!GeoQuery.this.hasListeners()) {
+                    reset();
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds a listener that is notified each time ranges of this query were loaded and reported while the query loads
+     * closest-first, see {@link #setClosestFirst(boolean)}. Progress listeners alone do not make the query load.
+     *
+     * @throws IllegalArgumentException If this listener was already added
+     *
+     * @param listener The listener to add
+     */
+    public synchronized void addGeoQueryProgressListener(final GeoQueryProgressListener listener) {
+        if (!this.addedProgressListeners.add(listener)) {
+            throw new IllegalArgumentException("Added the same listener twice to a GeoQuery!");
         }
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                progressListeners.add(listener);
+            }
+        });
     }
 
     /**
-     * Removes all event listeners from this GeoQuery.
+     * Removes a progress listener.
+     *
+     * @throws IllegalArgumentException If the listener was removed already or never added
+     *
+     * @param listener The listener to remove
+     */
+    public synchronized void removeGeoQueryProgressListener(final GeoQueryProgressListener listener) {
+        if (!this.addedProgressListeners.remove(listener)) {
+            throw new IllegalArgumentException("Trying to remove listener that was removed or not added!");
+        }
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                progressListeners.remove(listener);
+            }
+        });
+    }
+
+    /**
+     * Removes all event listeners, batch listeners and progress listeners from this GeoQuery.
      */
     public synchronized void removeAllListeners() {
-        eventListeners.clear();
-        reset();
+        this.addedEventListeners.clear();
+        this.addedBatchListeners.clear();
+        this.addedProgressListeners.clear();
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                eventListeners.clear();
+                batchDispatchers.clear();
+                progressListeners.clear();
+                reset();
+            }
+        });
+    }
+
+    /**
+     * Returns an immutable snapshot of the keys currently in this query. The first call builds the snapshot on the task
+     * queue of this query; from then on the query publishes a new snapshot at most every few milliseconds
+     * while its keys change, and right before onGeoQueryReady is raised. Later calls only read the last published
+     * snapshot and never block, so a snapshot may lag a few milliseconds behind the raised events. Snapshots are
+     * no longer published once all listeners are removed.
+     * @return The current snapshot
+     */
+    public GeoQuerySnapshot getSnapshot() {
+        GeoQuerySnapshot current = this.snapshot;
+        if (current != null) {
+            return current;
+        }
+        return this.loop.call(new Callable<GeoQuerySnapshot>() {
+            @Override
+            public GeoQuerySnapshot call() {
+                if (GeoQuery.this.snapshot == null) {
+                    GeoQuery.this.publishSnapshot();
+                }
+                return GeoQuery.this.snapshot;
+            }
+        });
+    }
+
+    /**
+     * Returns a snapshot of the counters of this query. Never blocks; events and changes that are still queued are not
+     * counted yet, and the counters are read one by one, so they may be a single event apart.
+     * @return The current metrics
+     */
+    public GeoQueryMetrics getMetrics() {
+        return new GeoQueryMetrics(this.subscribedRanges, this.trackedLocations, this.locationEvents,
+                this.locationEventsInQuery, this.enteredCount, this.movedCount, this.exitedCount, this.readyMillis,
+                this.updateCount, this.lastUpdateNanos);
+    }
+
+    SubscriptionManager.RangeListener getRangeListener() {
+        return this.rangeListener;
+    }
+
+    Set<GeoHashQuery> getGeoHashQueries() {
+        return this.loop.call(new Callable<Set<GeoHashQuery>>() {
+            @Override
+            public Set<GeoHashQuery> call() {
+                Set<GeoHashQuery> queries = GeoQuery.this.queries;
+                return (queries == null) ? Collections.<GeoHashQuery>emptySet() : new HashSet<GeoHashQuery>(queries);
+            }
+        });
     }
 
     /**
      * Returns the current center of this query.
+     *
+     * @throws IllegalStateException If this query is not a circle
+     *
      * @return The current center
      */
-    public synchronized GeoLocation getCenter() {
-        return center;
+    public GeoLocation getCenter() {
+        this.checkCircle();
+        return this.requestedCenter;
     }
 
     /**
      * Sets the new center of this query and triggers new events if necessary.
+     *
+     * @throws IllegalStateException If this query is not a circle
+     *
      * @param center The new center
      */
     public synchronized void setCenter(GeoLocation center) {
-        this.center = center;
-        if (this.hasListeners()) {
-            this.setupQueries();
+        this.checkCircle();
+        this.requestArea(center, this.requestedRadius, new CircleFilter(center, this.requestedRadius));
+    }
+
+    private void checkCircle() {
+        if (this.requestedCenter == null) {
+            throw new IllegalStateException("Only circle queries have a center and a radius!");
+        }
+    }
+
+    /**
+     * Returns the area this query reports keys in, a {@link CircleFilter}, {@link BoxFilter} or {@link PolygonFilter}.
+     * @return The current area
+     */
+    public GeoArea getArea() {
+        return this.requestedArea;
+    }
+
+    /**
+     * Turns this query into a query for the given box and triggers new events if necessary. A box whose south west
+     * corner lies east of its north east corner crosses the 180th meridian.
+     * @param southWest The south west corner of the box
+     * @param northEast The north east corner of the box
+     */
+    public synchronized void setBox(GeoLocation southWest, GeoLocation northEast) {
+        this.requestArea(null, this.requestedRadius, new BoxFilter(southWest, northEast));
+    }
+
+    /**
+     * Turns this query into a query for the given polygon and triggers new events if necessary. The edges of the
+     * polygon are straight lines in latitude/longitude; the polygon may cross the 180th meridian, but must not
+     * contain a pole.
+     * @param vertices The vertices of the polygon, at least three
+     */
+    public synchronized void setPolygon(List<GeoLocation> vertices) {
+        this.requestArea(null, this.requestedRadius, new PolygonFilter(vertices));
+    }
+
+    // center is null for boxes and polygons, radius is in meters
+    private void requestArea(final GeoLocation center, final double radius, final GeoArea area) {
+        this.requestedCenter = center;
+        this.requestedRadius = radius;
+        this.requestedArea = area;
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                GeoQuery.this.center = center;
+                GeoQuery.this.radius = radius;
+                GeoQuery.this.area = area;
+                if (GeoQuery.this.hasListeners()) {
+                    GeoQuery.this.setupQueries();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the prefetch margin of the query, in kilometers.
+     * @return The prefetch margin of this query, in kilometers
+     */
+    public double getPrefetchMargin() {
+        // convert from meters
+        return this.requestedPrefetchMargin / 1000;
+    }
+
+    /**
+     * Sets a margin around the query that is loaded in advance. Locations in the margin are downloaded, but only
+     * reported once they are inside the query radius. As long as the query stays within the loaded area, moving the
+     * center or changing the radius does not change any listeners on the server, so the query does not download its
+     * surroundings again until it moved about the margin away from where they were loaded.
+     * A margin of 0, the default, loads exactly the area needed by the query.
+     * @param prefetchMargin The margin in kilometers
+     */
+    public synchronized void setPrefetchMargin(double prefetchMargin) {
+        if (prefetchMargin < 0) {
+            throw new IllegalArgumentException("Prefetch margin must not be negative!");
+        }
+        // convert to meters
+        final double margin = prefetchMargin * 1000;
+        this.requestedPrefetchMargin = margin;
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                GeoQuery.this.prefetchMargin = margin;
+                if (GeoQuery.this.hasListeners()) {
+                    // recompute the covered area with the new margin
+                    GeoQuery.this.coverArea = null;
+                    GeoQuery.this.setupQueries();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the maximal number of geohash queries used by this query, or 0 if the fixed covering is used.
+     * @return The maximal number of geohash queries
+     */
+    public int getMaxGeoHashQueries() {
+        return this.requestedMaxGeoHashQueries;
+    }
+
+    /**
+     * Lets this query cover its area with an adaptive covering of at most the given number of geohash queries, see
+     * {@link GeoHashCovering}. Allowing more queries than the fixed covering uses reduces the number of locations
+     * outside of the radius that are downloaded. A value of 0, the default, uses the fixed covering.
+     * @param maxGeoHashQueries The maximal number of geohash queries, or 0
+     */
+    public synchronized void setMaxGeoHashQueries(final int maxGeoHashQueries) {
+        if (maxGeoHashQueries < 0) {
+            throw new IllegalArgumentException("Maximal number of geohash queries must not be negative!");
         }
+        this.requestedMaxGeoHashQueries = maxGeoHashQueries;
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                GeoQuery.this.maxGeoHashQueries = maxGeoHashQueries;
+                if (GeoQuery.this.hasListeners()) {
+                    GeoQuery.this.coverArea = null;
+                    GeoQuery.this.setupQueries();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns whether this query loads and reports its ranges closest-first.
+     * @return True if the query loads closest-first
+     */
+    public boolean isClosestFirst() {
+        return this.requestedClosestFirst;
+    }
+
+    /**
+     * Lets this query load closest-first. The query then subscribes to its geohash ranges in the order of their
+     * distance to the center of its area, and holds back onKeyEntered for keys of a range until the range and all
+     * ranges closer to the center are loaded. Keys are then reported closest-first, so on a slow connection the
+     * nearby keys show up before the store delivered the ranges far away. Progress listeners are notified each time
+     * ranges were reported. Keys from a {@link LocationCache} are still reported right away.
+     * By default, all ranges are subscribed at once and keys are reported as soon as they arrive.
+     * @param closestFirst True to load closest-first
+     */
+    public synchronized void setClosestFirst(final boolean closestFirst) {
+        this.requestedClosestFirst = closestFirst;
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                GeoQuery.this.closestFirst = closestFirst;
+                if (!closestFirst) {
+                    // report the keys of all held ranges that are loaded already
+                    GeoQuery.this.releaseQueries();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns how often keys with a motion are extrapolated, in milliseconds, or 0 if they are not.
+     * @return The dead reckoning interval
+     */
+    public long getDeadReckoningInterval() {
+        return this.requestedDeadReckoningInterval;
+    }
+
+    /**
+     * Lets this query extrapolate the locations of keys that were written with a {@link GeoMotion}, e.g. by a
+     * {@link DeadReckoningWriter}. Every interval, such keys are moved to where their speed and bearing predict them
+     * to be, raising onKeyMoved, onKeyEntered and onKeyExited as if the locations had been written. A key is
+     * extrapolated for at most two minutes after its location was measured, and the clocks of writers and readers
+     * are assumed to agree. Keys still belong to the ranges of their stored locations, so a prefetch margin helps to
+     * see keys that move into the query between two writes.
+     * An interval of 0, the default, reports the stored locations only.
+     * @param deadReckoningInterval The interval in milliseconds, or 0
+     */
+    public synchronized void setDeadReckoningInterval(final long deadReckoningInterval) {
+        if (deadReckoningInterval < 0) {
+            throw new IllegalArgumentException("Dead reckoning interval must not be negative!");
+        }
+        this.requestedDeadReckoningInterval = deadReckoningInterval;
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean wasDeadReckoning = GeoQuery.this.deadReckoningInterval > 0;
+                GeoQuery.this.deadReckoningInterval = deadReckoningInterval;
+                if (deadReckoningInterval > 0) {
+                    if (!wasDeadReckoning && GeoQuery.this.extrapolateLocations()) {
+                        GeoQuery.this.scheduleDeadReckoning();
+                    }
+                } else if (wasDeadReckoning) {
+                    // back to the stored locations
+                    GeoQuery.this.extrapolateLocations();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the maximal age of the keys in this query, in milliseconds, or 0 if keys never expire.
+     * @return The maximal age
+     */
+    public long getMaxAge() {
+        return this.requestedMaxAge;
+    }
+
+    /**
+     * Drops keys whose location was measured at least the given time ago, e.g. left behind by devices that
+     * crashed. Only keys written with a timestamp or motion, see
+     * {@link WildGeo#setLocation(String, GeoLocation, long, WildGeo.CompletionListener)}, can expire. Expired keys
+     * raise onKeyExited and are no longer tracked by the query until they are written again. The expiry times are kept
+     * in a timer wheel with 64 buckets, so keys expire up to a 64th of the maximal age, at least a second, late.
+     * A maximal age of 0, the default, keeps keys forever. Keys that expired are not reported again when the maximal
+     * age is raised later.
+     * @param maxAge The maximal age in milliseconds, or 0
+     */
+    public synchronized void setMaxAge(final long maxAge) {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("Maximal age must not be negative!");
+        }
+        this.requestedMaxAge = maxAge;
+        this.loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                GeoQuery.this.maxAge = maxAge;
+                if (maxAge == 0) {
+                    GeoQuery.this.expiryWheel = null;
+                    return;
+                }
+                long resolution = Math.max(MIN_EXPIRY_RESOLUTION, maxAge/EXPIRY_WHEEL_BUCKETS);
+                GeoQuery.this.expiryWheel = new ExpiryWheel(resolution, EXPIRY_WHEEL_BUCKETS);
+                for (Map.Entry<String, Long> entry: GeoQuery.this.timestamps.entrySet()) {
+                    GeoQuery.this.expiryWheel.add(entry.getKey(), entry.getValue() + maxAge);
+                }
+                // keys that are expired already are removed right away
+                GeoQuery.this.removeExpiredKeys();
+            }
+        });
     }
 
     /**
      * Returns the radius of the query, in kilometers.
+     *
+     * @throws IllegalStateException If this query is not a circle
+     *
      * @return The radius of this query, in kilometers
      */
-    public synchronized double getRadius() {
+    public double getRadius() {
+        this.checkCircle();
         // convert from meters
-        return radius / 1000;
+        return this.requestedRadius / 1000;
     }
 
     /**
      * Sets the radius of this query, in kilometers, and triggers new events if necessary.
+     *
+     * @throws IllegalStateException If this query is not a circle
+     *
      * @param radius The new radius value of this query in kilometers
      */
     public synchronized void setRadius(double radius) {
+        this.checkCircle();
         // convert to meters
-        this.radius = radius * 1000;
-        if (this.hasListeners()) {
-            this.setupQueries();
-        }
+        double meters = radius * 1000;
+        this.requestArea(this.requestedCenter, meters, new CircleFilter(this.requestedCenter, meters));
     }
 }
@@ -0,0 +1,63 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import com.wilddog.client.SyncError;
+
+import java.util.List;
+
+/**
+ * GeoQuery notifies listeners with this interface about keys that entered, exited, or moved within the query, like
+ * {@link GeoQueryEventListener}, but delivers all events of a dispatch window in a single call. This keeps the number
+ * of messages posted to the main thread small when a query loads or changes many keys at once.
+ */
+public interface GeoQueryBatchListener {
+
+    /**
+     * Called with all key events that happened since the last call, in the order they happened. The same rules as for
+     * the single events of {@link GeoQueryEventListener} apply; in particular every key currently in the search area
+     * is reported as entered once the listener is added.
+     *
+     * @param events The events, never empty
+     */
+    public void onGeoQueryEvents(List<GeoQueryEvent> events);
+
+    /**
+     * Called once all initial WildGeo data has been loaded and the relevant events have been delivered for this
+     * query, see {@link GeoQueryEventListener#onGeoQueryReady()}.
+     */
+    public void onGeoQueryReady();
+
+    /**
+     * Called in case an error occurred while retrieving locations for a query, e.g. violating security rules.
+     * @param error The error that occurred while retrieving the query
+     */
+    public void onGeoQueryError(SyncError error);
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+/**
+ * A single key event of a GeoQuery, as delivered to a {@link GeoQueryBatchListener}.
+ */
+public final class GeoQueryEvent {
+
+    /**
+     * The kind of a GeoQueryEvent, corresponding to the methods of {@link GeoQueryEventListener}.
+     */
+    public enum Type {
+        /** The key entered the search area, see {@link GeoQueryEventListener#onKeyEntered(String, GeoLocation)} */
+        ENTERED,
+        /** The key exited the search area, see {@link GeoQueryEventListener#onKeyExited(String)} */
+        EXITED,
+        /** The key moved within the search area, see {@link GeoQueryEventListener#onKeyMoved(String, GeoLocation)} */
+        MOVED
+    }
+
+    private final Type type;
+    private final String key;
+    private final GeoLocation location;
+
+    GeoQueryEvent(Type type, String key, GeoLocation location) {
+        this.type = type;
+        this.key = key;
+        this.location = location;
+    }
+
+    /**
+     * @return The kind of this event
+     */
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * @return The key this event is about
+     */
+    public String getKey() {
+        return this.key;
+    }
+
+    /**
+     * @return The location of the key, or null for {@link Type#EXITED} events
+     */
+    public GeoLocation getLocation() {
+        return this.location;
+    }
+
+    @Override
+    public String toString() {
+        return "GeoQueryEvent(" + type + ", " + key + ", " + location + ")";
+    }
+}
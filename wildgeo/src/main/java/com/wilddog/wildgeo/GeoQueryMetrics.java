@@ -0,0 +1,152 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+/**
+ * A snapshot of the counters of a GeoQuery, see {@link GeoQuery#getMetrics()}.
+ */
+public final class GeoQueryMetrics {
+
+    private final int subscribedRanges;
+    private final int trackedLocations;
+    private final long locationEvents;
+    private final long locationEventsInQuery;
+    private final long enteredCount;
+    private final long movedCount;
+    private final long exitedCount;
+    private final long readyMillis;
+    private final long updateCount;
+    private final long lastUpdateNanos;
+
+    GeoQueryMetrics(int subscribedRanges, int trackedLocations, long locationEvents, long locationEventsInQuery,
+                    long enteredCount, long movedCount, long exitedCount, long readyMillis, long updateCount,
+                    long lastUpdateNanos) {
+        this.subscribedRanges = subscribedRanges;
+        this.trackedLocations = trackedLocations;
+        this.locationEvents = locationEvents;
+        this.locationEventsInQuery = locationEventsInQuery;
+        this.enteredCount = enteredCount;
+        this.movedCount = movedCount;
+        this.exitedCount = exitedCount;
+        this.readyMillis = readyMillis;
+        this.updateCount = updateCount;
+        this.lastUpdateNanos = lastUpdateNanos;
+    }
+
+    /**
+     * @return The number of geohash ranges the query is subscribed to
+     */
+    public int getSubscribedRanges() {
+        return this.subscribedRanges;
+    }
+
+    /**
+     * @return The number of locations the query currently keeps track of, inside and outside of the query area
+     */
+    public int getTrackedLocations() {
+        return this.trackedLocations;
+    }
+
+    /**
+     * @return The number of added or changed locations the query received from its ranges
+     */
+    public long getLocationEvents() {
+        return this.locationEvents;
+    }
+
+    /**
+     * @return The number of added or changed locations received from the ranges that were inside the query area
+     */
+    public long getLocationEventsInQuery() {
+        return this.locationEventsInQuery;
+    }
+
+    /**
+     * Returns the share of received locations that were outside of the query area, i.e. downloaded only because the
+     * geohash ranges cover more than the query area.
+     * @return The false positive ratio between 0 and 1, or 0 if no location was received yet
+     */
+    public double getFalsePositiveRatio() {
+        if (this.locationEvents == 0) {
+            return 0;
+        }
+        return (double)(this.locationEvents - this.locationEventsInQuery)/this.locationEvents;
+    }
+
+    /**
+     * @return The number of key entered events raised
+     */
+    public long getEnteredCount() {
+        return this.enteredCount;
+    }
+
+    /**
+     * @return The number of key moved events raised
+     */
+    public long getMovedCount() {
+        return this.movedCount;
+    }
+
+    /**
+     * @return The number of key exited events raised
+     */
+    public long getExitedCount() {
+        return this.exitedCount;
+    }
+
+    /**
+     * @return The time it took the query to get ready the last time, in milliseconds, or -1 if it never got ready
+     */
+    public long getReadyMillis() {
+        return this.readyMillis;
+    }
+
+    /**
+     * @return The number of times the query computed its geohash ranges for new criteria
+     */
+    public long getUpdateCount() {
+        return this.updateCount;
+    }
+
+    /**
+     * @return The time the last computation of the geohash ranges took, in nanoseconds
+     */
+    public long getLastUpdateNanos() {
+        return this.lastUpdateNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "GeoQueryMetrics{subscribedRanges=" + subscribedRanges + ", trackedLocations=" + trackedLocations +
+                ", locationEvents=" + locationEvents + ", locationEventsInQuery=" + locationEventsInQuery +
+                ", enteredCount=" + enteredCount + ", movedCount=" + movedCount + ", exitedCount=" + exitedCount +
+                ", readyMillis=" + readyMillis + ", updateCount=" + updateCount + ", lastUpdateNanos=" +
+                lastUpdateNanos + "}";
+    }
+}
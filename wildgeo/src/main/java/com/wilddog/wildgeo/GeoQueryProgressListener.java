@@ -0,0 +1,49 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+/**
+ * GeoQuery notifies listeners with this interface each time ranges of a query that loads closest-first are loaded and
+ * their keys were reported, see {@link GeoQuery#setClosestFirst(boolean)}. Listeners are called on the event thread,
+ * after the onKeyEntered events of the reported keys.
+ */
+public interface GeoQueryProgressListener {
+
+    /**
+     * Called after the keys of one or more ranges were reported. All keys of the query that are at most
+     * completeDistance away from the center of the query area have been reported at this point.
+     *
+     * @param loadedRanges The number of ranges whose keys were reported
+     * @param totalRanges The number of ranges of the query
+     * @param completeDistance The distance from the center up to which the query is complete, in kilometers, or
+     *                         Double.POSITIVE_INFINITY once all ranges were reported
+     */
+    public void onGeoQueryProgress(int loadedRanges, int totalRanges, double completeDistance);
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import com.wilddog.wildgeo.util.GeoUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable view of the keys inside of a GeoQuery at one point in time, see {@link GeoQuery#getSnapshot()}.
+ * Snapshots can be read on any thread without any locking.
+ */
+public final class GeoQuerySnapshot {
+
+    private final long version;
+    private final boolean ready;
+    private final Map<String, GeoLocation> locations;
+
+    GeoQuerySnapshot(long version, boolean ready, Map<String, GeoLocation> locations) {
+        this.version = version;
+        this.ready = ready;
+        this.locations = Collections.unmodifiableMap(locations);
+    }
+
+    /**
+     * @return A number that grows with every change of the keys in the query, equal versions mean equal contents
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * @return Whether all ranges of the query were loaded when the snapshot was taken
+     */
+    public boolean isReady() {
+        return this.ready;
+    }
+
+    /**
+     * @return The number of keys in the query
+     */
+    public int size() {
+        return this.locations.size();
+    }
+
+    /**
+     * @return The keys in the query
+     */
+    public Set<String> getKeys() {
+        return this.locations.keySet();
+    }
+
+    /**
+     * @return The locations of all keys in the query, by key
+     */
+    public Map<String, GeoLocation> getLocations() {
+        return this.locations;
+    }
+
+    /**
+     * @param key The key to look up
+     * @return The location of the key, or null if it is not in the query
+     */
+    public GeoLocation getLocation(String key) {
+        return this.locations.get(key);
+    }
+
+    /**
+     * Returns all keys in the query sorted by their distance from the given location, closest first.
+     * @param from The location to measure the distances from, e.g. the center of the query
+     * @return The keys with their locations and distances in kilometers
+     */
+    public List<NearestLocation> sortedByDistance(GeoLocation from) {
+        List<NearestLocation> sorted = new ArrayList<NearestLocation>(this.locations.size());
+        for (Map.Entry<String, GeoLocation> entry: this.locations.entrySet()) {
+            // convert from meters to kilometers
+            double distance = GeoUtils.distance(from, entry.getValue())/1000;
+            sorted.add(new NearestLocation(entry.getKey(), entry.getValue(), distance));
+        }
+        Collections.sort(sorted, NearestLocation.BY_DISTANCE);
+        return sorted;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import com.wilddog.wildgeo.core.GeoHash;
+import com.wilddog.wildgeo.core.GeoHashQuery;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Remembers the last known locations of keys across restarts of the app. Once set on a WildGeo instance with
+ * {@link WildGeo#setLocationCache(LocationCache)}, all locations received from the store are kept in the cache, and
+ * new queries report the cached locations in their area right away as provisional keys, long before the store
+ * delivers the live data. As soon as a geohash range of the query is loaded, provisional keys the store did not
+ * confirm in that range exit the query again.
+ *
+ * The cache is kept in memory, ordered by geohash, and written to a compact binary file by {@link #save()}. If it
+ * holds more than its capacity, the keys that were updated longest ago are dropped. The LocationCache class is thread
+ * safe.
+ */
+public class LocationCache {
+
+    // "WGC1", marks the files written by this class
+    private static final int FILE_MAGIC = 0x57474331;
+
+    private static final int DEFAULT_CAPACITY = 10000;
+
+    private static class CachedLocation implements Comparable<CachedLocation> {
+        final String geoHash;
+        final String key;
+        final GeoLocation location;
+
+        CachedLocation(String geoHash, String key, GeoLocation location) {
+            this.geoHash = geoHash;
+            this.key = key;
+            this.location = location;
+        }
+
+        @Override
+        public int compareTo(CachedLocation other) {
+            int result = this.geoHash.compareTo(other.geoHash);
+            return (result != 0) ? result : this.key.compareTo(other.key);
+        }
+    }
+
+    private final File file;
+    private final int capacity;
+    private final NavigableSet<CachedLocation> index = new TreeSet<CachedLocation>();
+    // ordered from the least to the most recently updated entry
+    private final LinkedHashMap<String, CachedLocation> entries;
+    // serializes saves, which share the temporary file, without blocking put while the file is written
+    private final Object saveLock = new Object();
+
+    /**
+     * Creates a cache for up to 10000 keys, backed by the given file. Existing contents of the file are loaded right
+     * away; a missing or unreadable file results in an empty cache.
+     * @param file The file the cache is loaded from and saved to
+     */
+    public LocationCache(File file) {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a cache for up to the given number of keys, backed by the given file. Existing contents of the file are
+     * loaded right away; a missing or unreadable file results in an empty cache.
+     * @param file The file the cache is loaded from and saved to
+     * @param capacity The maximal number of keys kept
+     */
+    public LocationCache(File file, final int capacity) {
+        if (file == null) {
+            throw new NullPointerException();
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least one!");
+        }
+        this.file = file;
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String, CachedLocation>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedLocation> eldest) {
+                if (this.size() > capacity) {
+                    LocationCache.this.index.remove(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        try {
+            this.load();
+        } catch (IOException e) {
+            // a damaged cache is as good as none
+            this.index.clear();
+            this.entries.clear();
+        }
+    }
+
+    private void load() throws IOException {
+        if (!this.file.exists()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+        try {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a location cache: " + this.file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                double latitude = in.readDouble();
+                double longitude = in.readDouble();
+                if (!GeoLocation.coordinatesValid(latitude, longitude)) {
+                    throw new IOException("Invalid location in cache: " + this.file);
+                }
+                this.put(key, new GeoLocation(latitude, longitude));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the current contents of the cache to its file. The file is replaced in one step, so a crash while saving
+     * leaves the previous contents intact. Concurrent saves run one after the other.
+     * @throws IOException If the file could not be written
+     */
+    public void save() throws IOException {
+        synchronized (this.saveLock) {
+            CachedLocation[] snapshot;
+            synchronized (this) {
+                snapshot = this.entries.values().toArray(new CachedLocation[this.entries.size()]);
+            }
+            File tempFile = new File(this.file.getPath() + ".tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(snapshot.length);
+                for (CachedLocation entry: snapshot) {
+                    out.writeUTF(entry.key);
+                    out.writeDouble(entry.location.latitude);
+                    out.writeDouble(entry.location.longitude);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(this.file)) {
+                // some platforms do not replace existing files on rename
+                if (!this.file.delete() || !tempFile.renameTo(this.file)) {
+                    throw new IOException("Could not replace " + this.file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all keys from the cache. The file is only changed by the next call to {@link #save()}.
+     */
+    public synchronized void clear() {
+        this.index.clear();
+        this.entries.clear();
+    }
+
+    /**
+     * @return The number of keys in the cache
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return The maximal number of keys kept
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    synchronized void put(String key, GeoLocation location) {
+        CachedLocation old = this.entries.remove(key);
+        if (old != null) {
+            this.index.remove(old);
+        }
+        CachedLocation entry = new CachedLocation(new GeoHash(location).getGeoHashString(), key, location);
+        this.index.add(entry);
+        this.entries.put(key, entry);
+    }
+
+    /**
+     * Removes the key if its cached location lies in the given range, so that a removal reported by one range does not
+     * drop a location another range reported already.
+     */
+    synchronized void removeInRange(GeoHashQuery range, String key) {
+        CachedLocation entry = this.entries.get(key);
+        if (entry != null && range.containsGeoHash(new GeoHash(entry.geoHash))) {
+            this.entries.remove(key);
+            this.index.remove(entry);
+        }
+    }
+
+    /**
+     * @return The cached locations in the given range, by key
+     */
+    synchronized Map<String, GeoLocation> getLocations(GeoHashQuery range) {
+        Map<String, GeoLocation> locations = new HashMap<String, GeoLocation>();
+        // the empty key sorts before all other keys with the same geohash
+        for (CachedLocation entry: this.index.subSet(new CachedLocation(range.getStartValue(), "", null), true,
+                new CachedLocation(range.getEndValue(), "", null), false)) {
+            locations.put(entry.key, entry.location);
+        }
+        return locations;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import com.wilddog.wildgeo.core.GeoHashCodec;
+import com.wilddog.wildgeo.util.Base32Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A grid of the keys tracked by a GeoQuery, bucketed by a prefix of their geohash. GeoQuery uses it to classify whole
+ * cells against the query circle and ranges, so only keys in cells that cross a boundary need to be looked at
+ * individually when the query criteria change. Keys are referred to by their slot in the {@link LocationStore}.
+ */
+class LocationIndex {
+
+    static class Cell {
+        final long prefix;
+        final double[] bounds = new double[4];
+        int[] slots = new int[4];
+        int size;
+
+        Cell(long prefix, int cellBits) {
+            this.prefix = prefix;
+            GeoHashCodec.decodeCellBounds(prefix, cellBits, this.bounds);
+        }
+
+        /**
+         * @return A copy of the slots in this cell, so the index can be modified while iterating
+         */
+        int[] copySlots() {
+            return Arrays.copyOf(this.slots, this.size);
+        }
+    }
+
+    // the precision of all hashes added to this index
+    private final int hashPrecision;
+    private final Map<Long, Cell> cells = new HashMap<Long, Cell>();
+    private int cellBits;
+    // the position of every slot within the slots of its cell
+    private int[] positions = new int[16];
+
+    LocationIndex(int hashPrecision, int cellBits) {
+        this.hashPrecision = hashPrecision;
+        this.cellBits = cellBits;
+    }
+
+    int getCellBits() {
+        return this.cellBits;
+    }
+
+    /**
+     * Removes all keys and changes the resolution of this index.
+     */
+    void reset(int cellBits) {
+        this.cells.clear();
+        this.cellBits = cellBits;
+    }
+
+    private long prefixOf(long geoHash) {
+        return geoHash >>> (this.hashPrecision*Base32Utils.BITS_PER_BASE32_CHAR - this.cellBits);
+    }
+
+    void add(int slot, long geoHash) {
+        long prefix = this.prefixOf(geoHash);
+        Cell cell = this.cells.get(prefix);
+        if (cell == null) {
+            cell = new Cell(prefix, this.cellBits);
+            this.cells.put(prefix, cell);
+        }
+        if (cell.size == cell.slots.length) {
+            cell.slots = Arrays.copyOf(cell.slots, cell.size*2);
+        }
+        if (slot >= this.positions.length) {
+            this.positions = Arrays.copyOf(this.positions, Math.max(slot + 1, this.positions.length*2));
+        }
+        this.positions[slot] = cell.size;
+        cell.slots[cell.size++] = slot;
+    }
+
+    void remove(int slot, long geoHash) {
+        long prefix = this.prefixOf(geoHash);
+        Cell cell = this.cells.get(prefix);
+        if (cell != null) {
+            // move the last slot of the cell into the gap
+            int position = this.positions[slot];
+            int last = cell.slots[--cell.size];
+            cell.slots[position] = last;
+            this.positions[last] = position;
+            if (cell.size == 0) {
+                this.cells.remove(prefix);
+            }
+        }
+    }
+
+    void move(int slot, long oldGeoHash, long newGeoHash) {
+        if (this.prefixOf(oldGeoHash) != this.prefixOf(newGeoHash)) {
+            this.remove(slot, oldGeoHash);
+            this.add(slot, newGeoHash);
+        }
+    }
+
+    /**
+     * @return A copy of the current cells, so the index can be modified while iterating
+     */
+    List<Cell> cells() {
+        return new ArrayList<Cell>(this.cells.values());
+    }
+
+    /**
+     * Returns the cells that may hold hashes in [from, to), looking up each prefix in the range if there are fewer of
+     * them than cells.
+     * @param from The first hash of the range, as bits of a hash with the precision of this index
+     * @param to The first hash after the range, as bits of a hash with the precision of this index
+     * @return The overlapping cells, so the index can be modified while iterating
+     */
+    List<Cell> cellsInRange(long from, long to) {
+        long firstPrefix = this.prefixOf(from);
+        long lastPrefix = this.prefixOf(to - 1);
+        List<Cell> overlapping = new ArrayList<Cell>();
+        if (lastPrefix - firstPrefix < this.cells.size()) {
+            for (long prefix = firstPrefix; prefix <= lastPrefix; prefix++) {
+                Cell cell = this.cells.get(prefix);
+                if (cell != null) {
+                    overlapping.add(cell);
+                }
+            }
+        } else {
+            for (Cell cell: this.cells.values()) {
+                if (cell.prefix >= firstPrefix && cell.prefix <= lastPrefix) {
+                    overlapping.add(cell);
+                }
+            }
+        }
+        return overlapping;
+    }
+
+    /**
+     * @return The first hash in the given cell, as bits of a hash with the precision of this index
+     */
+    long cellStart(Cell cell) {
+        return cell.prefix << (this.hashPrecision*Base32Utils.BITS_PER_BASE32_CHAR - this.cellBits);
+    }
+
+    /**
+     * @return The first hash after the given cell, as bits of a hash with the precision of this index
+     */
+    long cellEnd(Cell cell) {
+        return (cell.prefix + 1) << (this.hashPrecision*Base32Utils.BITS_PER_BASE32_CHAR - this.cellBits);
+    }
+
+    int getHashPrecision() {
+        return this.hashPrecision;
+    }
+}
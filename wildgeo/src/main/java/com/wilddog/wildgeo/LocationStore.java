@@ -0,0 +1,233 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import java.util.Arrays;
+
+/**
+ * The locations tracked by a GeoQuery, stored in parallel primitive arrays. Every key gets a slot, an int that stays
+ * the same until the key is removed, and all data of the key is updated in place in its slot. Keys are looked up in an
+ * open addressing hash table of slots, so apart from the key strings themselves no objects are allocated per key.
+ *
+ * Free slots are reused, so slots must not be held on to after their key was removed.
+ */
+class LocationStore {
+
+    static final int NO_SLOT = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // by slot, null for free slots
+    private String[] keys;
+    private double[] latitudes;
+    private double[] longitudes;
+    private long[] geoHashes;
+    private boolean[] inGeoQuery;
+
+    // free slots below slotCount, used as a stack
+    private int[] freeSlots;
+    private int freeCount;
+    // all slots at or above this were never used
+    private int slotCount;
+    private int size;
+
+    // slots by hash of their key with linear probing, NO_SLOT for empty entries; at most half full
+    private int[] table;
+
+    LocationStore() {
+        this.keys = new String[INITIAL_CAPACITY];
+        this.latitudes = new double[INITIAL_CAPACITY];
+        this.longitudes = new double[INITIAL_CAPACITY];
+        this.geoHashes = new long[INITIAL_CAPACITY];
+        this.inGeoQuery = new boolean[INITIAL_CAPACITY];
+        this.freeSlots = new int[INITIAL_CAPACITY];
+        this.table = new int[INITIAL_CAPACITY*2];
+        Arrays.fill(this.table, NO_SLOT);
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return The slot of the key, or NO_SLOT if the key is not stored
+     */
+    int find(String key) {
+        int mask = this.table.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int slot = this.table[i];
+            if (slot == NO_SLOT) {
+                return NO_SLOT;
+            } else if (this.keys[slot].equals(key)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Stores a key that is not stored yet.
+     * @return The slot of the new key
+     */
+    int add(String key, double latitude, double longitude, long geoHash, boolean inGeoQuery) {
+        int slot;
+        if (this.freeCount > 0) {
+            slot = this.freeSlots[--this.freeCount];
+        } else {
+            if (this.slotCount == this.keys.length) {
+                this.growSlots();
+            }
+            slot = this.slotCount++;
+        }
+        this.keys[slot] = key;
+        this.set(slot, latitude, longitude, geoHash);
+        this.inGeoQuery[slot] = inGeoQuery;
+        this.size++;
+        if (this.size*2 > this.table.length) {
+            this.rehash(this.table.length*2);
+        } else {
+            this.insert(slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Updates the location of the key in the given slot.
+     */
+    void set(int slot, double latitude, double longitude, long geoHash) {
+        this.latitudes[slot] = latitude;
+        this.longitudes[slot] = longitude;
+        this.geoHashes[slot] = geoHash;
+    }
+
+    void remove(int slot) {
+        int mask = this.table.length - 1;
+        int i = hash(this.keys[slot]) & mask;
+        while (this.table[i] != slot) {
+            i = (i + 1) & mask;
+        }
+        // shift following entries back so no probe sequence is interrupted
+        int gap = i;
+        for (int j = (gap + 1) & mask; this.table[j] != NO_SLOT; j = (j + 1) & mask) {
+            int home = hash(this.keys[this.table[j]]) & mask;
+            // move the entry if its home is not cyclically within (gap, j]
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                this.table[gap] = this.table[j];
+                gap = j;
+            }
+        }
+        this.table[gap] = NO_SLOT;
+        this.keys[slot] = null;
+        this.freeSlots[this.freeCount++] = slot;
+        this.size--;
+    }
+
+    void clear() {
+        Arrays.fill(this.keys, 0, this.slotCount, null);
+        Arrays.fill(this.table, NO_SLOT);
+        this.freeCount = 0;
+        this.slotCount = 0;
+        this.size = 0;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @return An upper bound for all slots in use, for iterating over all slots together with {@link #isUsed(int)}
+     */
+    int getSlotCount() {
+        return this.slotCount;
+    }
+
+    boolean isUsed(int slot) {
+        return this.keys[slot] != null;
+    }
+
+    String getKey(int slot) {
+        return this.keys[slot];
+    }
+
+    double getLatitude(int slot) {
+        return this.latitudes[slot];
+    }
+
+    double getLongitude(int slot) {
+        return this.longitudes[slot];
+    }
+
+    GeoLocation getLocation(int slot) {
+        return new GeoLocation(this.latitudes[slot], this.longitudes[slot]);
+    }
+
+    /**
+     * @return The geohash bits of the location with the default precision
+     */
+    long getGeoHash(int slot) {
+        return this.geoHashes[slot];
+    }
+
+    boolean isInGeoQuery(int slot) {
+        return this.inGeoQuery[slot];
+    }
+
+    void setInGeoQuery(int slot, boolean inGeoQuery) {
+        this.inGeoQuery[slot] = inGeoQuery;
+    }
+
+    private void insert(int slot) {
+        int mask = this.table.length - 1;
+        int i = hash(this.keys[slot]) & mask;
+        while (this.table[i] != NO_SLOT) {
+            i = (i + 1) & mask;
+        }
+        this.table[i] = slot;
+    }
+
+    private void rehash(int tableLength) {
+        this.table = new int[tableLength];
+        Arrays.fill(this.table, NO_SLOT);
+        for (int slot = 0; slot < this.slotCount; slot++) {
+            if (this.keys[slot] != null) {
+                this.insert(slot);
+            }
+        }
+    }
+
+    private void growSlots() {
+        int capacity = this.keys.length*2;
+        this.keys = Arrays.copyOf(this.keys, capacity);
+        this.latitudes = Arrays.copyOf(this.latitudes, capacity);
+        this.longitudes = Arrays.copyOf(this.longitudes, capacity);
+        this.geoHashes = Arrays.copyOf(this.geoHashes, capacity);
+        this.inGeoQuery = Arrays.copyOf(this.inGeoQuery, capacity);
+        this.freeSlots = Arrays.copyOf(this.freeSlots, capacity);
+    }
+}
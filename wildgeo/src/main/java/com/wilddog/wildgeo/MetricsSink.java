@@ -0,0 +1,62 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import com.wilddog.client.SyncError;
+
+/**
+ * Receives measurements of a WildGeo instance and its queries as they happen, e.g. to forward them to a monitoring
+ * system. All methods are called synchronously on the thread that made the measurement, partly from within a task of
+ * a GeoQuery; implementations must return quickly and must not call back into WildGeo or a GeoQuery.
+ */
+public interface MetricsSink {
+
+    /**
+     * Called once a GeoQuery loaded all of its ranges after a listener was added or its criteria changed.
+     * @param query The query that is ready
+     * @param durationMillis The time from the first change of the criteria until the query was ready, in milliseconds
+     */
+    void onGeoQueryReady(GeoQuery query, long durationMillis);
+
+    /**
+     * Called each time a GeoQuery computed its geohash ranges for new criteria and updated its subscriptions.
+     * @param query The query that was updated
+     * @param rangeCount The number of ranges the query is subscribed to now
+     * @param durationNanos The time the update took, in nanoseconds
+     */
+    void onGeoQueryUpdated(GeoQuery query, int rangeCount, long durationNanos);
+
+    /**
+     * Called once a write of one or more locations completed.
+     * @param keyCount The number of keys written or removed
+     * @param durationMillis The time from issuing the write until the store confirmed it, in milliseconds
+     * @param error The error or null if the write succeeded
+     */
+    void onWriteComplete(int keyCount, long durationMillis, SyncError error);
+}
@@ -0,0 +1,81 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import java.util.Comparator;
+
+/**
+ * A key found by {@link WildGeo#queryNearest(GeoLocation, int, double, NearestQueryCallback)} or listed by
+ * {@link GeoQuerySnapshot#sortedByDistance(GeoLocation)}, with its location and distance to the center.
+ */
+public final class NearestLocation {
+
+    static final Comparator<NearestLocation> BY_DISTANCE = new Comparator<NearestLocation>() {
+        @Override
+        public int compare(NearestLocation location1, NearestLocation location2) {
+            return Double.compare(location1.getDistance(), location2.getDistance());
+        }
+    };
+
+    private final String key;
+    private final GeoLocation location;
+    private final double distance;
+
+    NearestLocation(String key, GeoLocation location, double distance) {
+        this.key = key;
+        this.location = location;
+        this.distance = distance;
+    }
+
+    /**
+     * @return The key
+     */
+    public String getKey() {
+        return this.key;
+    }
+
+    /**
+     * @return The location of the key
+     */
+    public GeoLocation getLocation() {
+        return this.location;
+    }
+
+    /**
+     * @return The distance of the key to the center, in kilometers
+     */
+    public double getDistance() {
+        return this.distance;
+    }
+
+    @Override
+    public String toString() {
+        return "NearestLocation{key=" + this.key + ", location=" + this.location + ", distance=" + this.distance + "}";
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import com.wilddog.client.SyncError;
+import com.wilddog.wildgeo.core.GeoHash;
+import com.wilddog.wildgeo.core.GeoHashCodec;
+import com.wilddog.wildgeo.core.GeoHashQuery;
+import com.wilddog.wildgeo.store.GeoStore;
+import com.wilddog.wildgeo.util.Base32Utils;
+import com.wilddog.wildgeo.util.GeoUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the keys closest to a center by loading rings of geohash cells around it, one ring at a time. After each ring
+ * all keys closer than the nearest cell that is not loaded yet are known, so the search stops as soon as enough keys
+ * are within that distance. All ranges are read once and unsubscribed right after they are loaded.
+ */
+class NearestQuery {
+
+    // the cells are sized so the maximal radius is reached after about this many rings
+    private static final int RINGS_TO_MAX_RADIUS = 4;
+
+    private class RangeLoader implements GeoStore.RangeListener {
+        GeoStore.Subscription subscription;
+        boolean loaded;
+
+        @Override
+        public void onLocationAdded(String key, GeoLocation location, GeoMotion motion) {
+            synchronized (NearestQuery.this) {
+                NearestQuery.this.locations.put(key, location);
+            }
+        }
+
+        @Override
+        public void onLocationChanged(String key, GeoLocation location, GeoMotion motion) {
+            synchronized (NearestQuery.this) {
+                NearestQuery.this.locations.put(key, location);
+            }
+        }
+
+        @Override
+        public void onLocationRemoved(String key) {
+            synchronized (NearestQuery.this) {
+                NearestQuery.this.locations.remove(key);
+            }
+        }
+
+        @Override
+        public void onLoaded() {
+            List<GeoHashQuery> nextRing;
+            synchronized (NearestQuery.this) {
+                if (this.loaded) {
+                    return;
+                }
+                this.loaded = true;
+                this.cancel();
+                if (NearestQuery.this.finished || --NearestQuery.this.outstandingRanges > 0) {
+                    return;
+                }
+                nextRing = NearestQuery.this.ringLoaded();
+            }
+            NearestQuery.this.load(nextRing);
+        }
+
+        @Override
+        public void onError(SyncError error) {
+            synchronized (NearestQuery.this) {
+                NearestQuery.this.fail(error);
+            }
+        }
+
+        // called with the lock held
+        void cancel() {
+            if (this.subscription != null) {
+                this.subscription.cancel();
+                this.subscription = null;
+            }
+        }
+    }
+
+    private final WildGeo wildGeo;
+    private final GeoLocation center;
+    private final int count;
+    // in meters
+    private final double maxRadius;
+    private final NearestQueryCallback callback;
+
+    // the grid of cells, the first of the interleaved bits is a longitude bit
+    private final int cellBits;
+    private final int columns;
+    private final int rows;
+    private final int centerColumn;
+    private final int centerRow;
+
+    private final Set<Long> loadedCells = new HashSet<Long>();
+    private final List<RangeLoader> loaders = new ArrayList<RangeLoader>();
+    private final Map<String, GeoLocation> locations = new HashMap<String, GeoLocation>();
+    private int ring;
+    private int outstandingRanges;
+    private boolean finished;
+
+    NearestQuery(WildGeo wildGeo, GeoLocation center, int count, double maxRadius, NearestQueryCallback callback) {
+        this.wildGeo = wildGeo;
+        this.center = center;
+        this.count = count;
+        this.maxRadius = maxRadius;
+        this.callback = callback;
+        // ring cells are never finer than the stored geohashes
+        int maxBits = Math.min(GeoHashCodec.MAX_LONG_PRECISION, wildGeo.getPrecision() - 1)*
+                Base32Utils.BITS_PER_BASE32_CHAR;
+        this.cellBits = Math.max(1, Math.min(maxBits,
+                GeoHashQuery.Utils.bitsForBoundingBox(center, maxRadius/RINGS_TO_MAX_RADIUS)));
+        this.columns = 1 << ((this.cellBits + 1)/2);
+        this.rows = 1 << (this.cellBits/2);
+        this.centerColumn = Math.min(this.columns - 1, (int)Math.floor((center.longitude + 180)/360*this.columns));
+        this.centerRow = Math.min(this.rows - 1, (int)Math.floor((center.latitude + 90)/180*this.rows));
+    }
+
+    void start() {
+        List<GeoHashQuery> firstRing;
+        synchronized (this) {
+            firstRing = this.ringQueries(0);
+        }
+        this.load(firstRing);
+    }
+
+    private double cellWidth() {
+        return 360.0/this.columns;
+    }
+
+    private double cellHeight() {
+        return 180.0/this.rows;
+    }
+
+    // the cells of the given ring that are not loaded yet as {row, column}
+    private List<long[]> ringCells(int ring) {
+        List<long[]> cells = new ArrayList<long[]>();
+        Set<Long> seen = new HashSet<Long>();
+        for (int dy = -ring; dy <= ring; dy++) {
+            int row = this.centerRow + dy;
+            if (row < 0 || row >= this.rows) {
+                continue;
+            }
+            int step = (Math.abs(dy) == ring) ? 1 : 2*ring;
+            for (int dx = -ring; dx <= ring; dx += step) {
+                int column = ((this.centerColumn + dx) % this.columns + this.columns) % this.columns;
+                long cell = (long)row*this.columns + column;
+                if (!this.loadedCells.contains(cell) && seen.add(cell)) {
+                    cells.add(new long[]{row, column});
+                }
+            }
+        }
+        return cells;
+    }
+
+    private List<GeoHashQuery> ringQueries(int ring) {
+        this.ring = ring;
+        int precision = (this.cellBits + Base32Utils.BITS_PER_BASE32_CHAR - 1)/Base32Utils.BITS_PER_BASE32_CHAR;
+        Set<GeoHashQuery> queries = new HashSet<GeoHashQuery>();
+        for (long[] cell: this.ringCells(ring)) {
+            this.loadedCells.add(cell[0]*this.columns + cell[1]);
+            double latitude = -90 + (cell[0] + 0.5)*this.cellHeight();
+            double longitude = -180 + (cell[1] + 0.5)*this.cellWidth();
+            queries.add(GeoHashQuery.queryForGeoHash(new GeoHash(latitude, longitude, precision), this.cellBits));
+        }
+        List<GeoHashQuery> result = new ArrayList<GeoHashQuery>(GeoHashQuery.joinQueries(queries));
+        this.outstandingRanges = result.size();
+        if (result.isEmpty()) {
+            // the whole world is loaded
+            this.finish(Double.POSITIVE_INFINITY);
+        }
+        return result;
+    }
+
+    private void load(List<GeoHashQuery> ranges) {
+        GeoStore store = this.wildGeo.getStore();
+        for (GeoHashQuery range: ranges) {
+            RangeLoader loader = new RangeLoader();
+            synchronized (this) {
+                if (this.finished) {
+                    return;
+                }
+                this.loaders.add(loader);
+            }
+            GeoStore.Subscription subscription = store.subscribe(range.getStartValue(), range.getEndValue(), loader);
+            synchronized (this) {
+                if (loader.loaded || this.finished) {
+                    subscription.cancel();
+                } else {
+                    loader.subscription = subscription;
+                }
+            }
+        }
+    }
+
+    // called with the lock held once all ranges of the current ring are loaded, returns the ranges of the next ring
+    private List<GeoHashQuery> ringLoaded() {
+        // every point outside of the loaded cells is at least as far away as the closest cell of the next ring
+        double coveredRadius = Double.POSITIVE_INFINITY;
+        for (long[] cell: this.ringCells(this.ring + 1)) {
+            double latitudeMin = -90 + cell[0]*this.cellHeight();
+            double longitudeMin = -180 + cell[1]*this.cellWidth();
+            coveredRadius = Math.min(coveredRadius, GeoUtils.minDistanceToBox(this.center.latitude,
+                    this.center.longitude, latitudeMin, latitudeMin + this.cellHeight(),
+                    longitudeMin, longitudeMin + this.cellWidth()));
+        }
+        if (coveredRadius >= this.maxRadius || this.countWithin(coveredRadius) >= this.count) {
+            this.finish(coveredRadius);
+            return Collections.emptyList();
+        }
+        return this.ringQueries(this.ring + 1);
+    }
+
+    private int countWithin(double radius) {
+        int within = 0;
+        for (GeoLocation location: this.locations.values()) {
+            if (GeoUtils.distance(this.center, location) <= radius) {
+                within++;
+            }
+        }
+        return within;
+    }
+
+    private void finish(double coveredRadius) {
+        this.finished = true;
+        double radius = Math.min(coveredRadius, this.maxRadius);
+        final List<NearestLocation> results = new ArrayList<NearestLocation>();
+        for (Map.Entry<String, GeoLocation> entry: this.locations.entrySet()) {
+            double distance = GeoUtils.distance(this.center, entry.getValue());
+            if (distance <= radius) {
+                // convert from meters to kilometers
+                results.add(new NearestLocation(entry.getKey(), entry.getValue(), distance/1000));
+            }
+        }
+        Collections.sort(results, NearestLocation.BY_DISTANCE);
+        if (results.size() > this.count) {
+            results.subList(this.count, results.size()).clear();
+        }
+        this.wildGeo.raiseEvent(new Runnable() {
+            @Override
+            public void run() {
+                NearestQuery.this.wildGeo.eventDelivered();
+                NearestQuery.this.callback.onNearestResult(results);
+            }
+        });
+    }
+
+    private void fail(final SyncError error) {
+        if (this.finished) {
+            return;
+        }
+        this.finished = true;
+        for (RangeLoader loader: this.loaders) {
+            loader.cancel();
+        }
+        this.wildGeo.raiseEvent(new Runnable() {
+            @Override
+            public void run() {
+                NearestQuery.this.wildGeo.eventDelivered();
+                NearestQuery.this.callback.onCancelled(error);
+            }
+        });
+    }
+}
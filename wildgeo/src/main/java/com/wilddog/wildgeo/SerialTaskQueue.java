@@ -0,0 +1,159 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one at a time in the order they were submitted, on an executor. Tasks are put on a lock-free queue, and
+ * as long as there are tasks, exactly one drain of the queue is scheduled on the executor; submitting threads never
+ * run tasks themselves. State that is only touched by tasks therefore has a single writer at any time and needs no
+ * lock, and {@link #execute(Runnable)} never blocks.
+ *
+ * A task that throws does not stop the queue: the drain goes on with the tasks queued after it, schedules the next
+ * drain if tasks are left, and only then rethrows the first failure on the executor thread.
+ */
+class SerialTaskQueue {
+
+    // a drain runs at most this many tasks before it makes room for other work of a shared executor
+    private static final int MAX_BATCH = 256;
+
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    // whether a drain is scheduled or running
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    // the thread currently running tasks, or null
+    private volatile Thread owner;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            SerialTaskQueue.this.drain();
+        }
+    };
+
+    SerialTaskQueue(Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException();
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Queues the task and returns; the task runs on the executor after all tasks submitted before it.
+     */
+    void execute(Runnable task) {
+        this.tasks.offer(task);
+        this.schedule();
+    }
+
+    /**
+     * Runs the task and waits for its result. A task that calls this method runs the nested task right away, like a
+     * reentrant lock would. Runtime exceptions of the task are rethrown. Must not be called from a thread of the
+     * executor other than the one running this queue, as that thread could be the one the task waits for.
+     */
+    <T> T call(Callable<T> task) {
+        FutureTask<T> future = new FutureTask<T>(task);
+        if (this.owner == Thread.currentThread()) {
+            future.run();
+        } else {
+            this.execute(future);
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    // the task is queued already, it has to complete
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void schedule() {
+        // a task queued while the last drain was leaving is picked up by the next one
+        if (!this.tasks.isEmpty() && this.scheduled.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this.drain);
+            } catch (RejectedExecutionException e) {
+                this.scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        Throwable failure = null;
+        this.owner = Thread.currentThread();
+        try {
+            Runnable task;
+            for (int i = 0; i < MAX_BATCH && (task = this.tasks.poll()) != null; i++) {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    // the tasks after it still run, in particular the ones other threads wait for
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        } finally {
+            this.owner = null;
+            this.scheduled.set(false);
+        }
+        this.schedule();
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import com.wilddog.client.SyncError;
+import com.wilddog.wildgeo.core.GeoHashQuery;
+import com.wilddog.wildgeo.store.GeoStore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares the store subscriptions for geohash ranges between all GeoQuery instances of a WildGeo. Every range is only
+ * subscribed once in the store, no matter how many queries are interested in it. Each event is forwarded to all
+ * queries subscribed to the range.
+ *
+ * No locations are kept here. A listener that subscribes to a range that is already subscribed catches up with a
+ * store subscription of its own, which the store answers from its local cache if it has one. Once that subscription
+ * is loaded, the listener is handed over to the shared subscription and its own subscription is cancelled. As the store
+ * delivers all callbacks in the order the changes happened, the listener misses no event.
+ *
+ * Listeners must not block; they are expected to queue the events and handle them in order, like GeoQuery does.
+ * Events are delivered without holding the lock of this manager.
+ */
+class SubscriptionManager {
+
+    /**
+     * Receives the decoded events of a subscribed geohash range.
+     */
+    interface RangeListener {
+        void onLocationAdded(String key, GeoLocation location, GeoMotion motion);
+
+        void onLocationChanged(String key, GeoLocation location, GeoMotion motion);
+
+        void onLocationRemoved(GeoHashQuery range, String key);
+
+        void onRangeReady(GeoHashQuery range);
+
+        void onRangeError(GeoHashQuery range, SyncError error);
+    }
+
+    private class Subscription implements GeoStore.RangeListener {
+        final GeoHashQuery range;
+        final List<RangeListener> listeners = new ArrayList<RangeListener>();
+        // listeners that joined after the range was subscribed and are still loading it on their own
+        final List<CatchUp> catchUps = new ArrayList<CatchUp>();
+        boolean ready;
+        GeoStore.Subscription storeSubscription;
+
+        Subscription(GeoHashQuery range) {
+            this.range = range;
+        }
+
+        private List<RangeListener> listenersIfActive() {
+            // called with the manager lock held
+            return isActive(this) ? new ArrayList<RangeListener>(this.listeners) : null;
+        }
+
+        private CatchUp findCatchUp(RangeListener listener) {
+            // called with the manager lock held
+            for (CatchUp catchUp: this.catchUps) {
+                if (catchUp.listener == listener) {
+                    return catchUp;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void onLocationAdded(String key, GeoLocation location, GeoMotion motion) {
+            LocationCache cache = SubscriptionManager.this.wildGeo.getLocationCache();
+            if (cache != null) {
+                cache.put(key, location);
+            }
+            List<RangeListener> listeners;
+            synchronized (SubscriptionManager.this) {
+                listeners = this.listenersIfActive();
+            }
+            if (listeners != null) {
+                for (RangeListener listener: listeners) {
+                    listener.onLocationAdded(key, location, motion);
+                }
+            }
+        }
+
+        @Override
+        public void onLocationChanged(String key, GeoLocation location, GeoMotion motion) {
+            LocationCache cache = SubscriptionManager.this.wildGeo.getLocationCache();
+            if (cache != null) {
+                cache.put(key, location);
+            }
+            List<RangeListener> listeners;
+            synchronized (SubscriptionManager.this) {
+                listeners = this.listenersIfActive();
+            }
+            if (listeners != null) {
+                for (RangeListener listener: listeners) {
+                    listener.onLocationChanged(key, location, motion);
+                }
+            }
+        }
+
+        @Override
+        public void onLocationRemoved(String key) {
+            LocationCache cache = SubscriptionManager.this.wildGeo.getLocationCache();
+            if (cache != null) {
+                cache.removeInRange(this.range, key);
+            }
+            List<RangeListener> listeners;
+            synchronized (SubscriptionManager.this) {
+                listeners = this.listenersIfActive();
+            }
+            if (listeners != null) {
+                for (RangeListener listener: listeners) {
+                    listener.onLocationRemoved(this.range, key);
+                }
+            }
+        }
+        @Override
+        public void onLoaded() {
+            List<RangeListener> listeners;
+            synchronized (SubscriptionManager.this) {
+                this.ready = true;
+                listeners = this.listenersIfActive();
+            }
+            if (listeners != null) {
+                for (RangeListener listener: listeners) {
+                    listener.onRangeReady(this.range);
+                }
+            }
+        }
+
+        @Override
+        public void onError(SyncError syncError) {
+            List<RangeListener> listeners;
+            synchronized (SubscriptionManager.this) {
+                listeners = this.listenersIfActive();
+            }
+            if (listeners != null) {
+                for (RangeListener listener: listeners) {
+                    listener.onRangeError(this.range, syncError);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads a range for a listener that subscribed to it after it was subscribed by another listener.
+     */
+    private class CatchUp implements GeoStore.RangeListener {
+        final Subscription subscription;
+        final RangeListener listener;
+        // false once the listener was handed over, unsubscribed or the catch-up failed
+        boolean pending = true;
+        GeoStore.Subscription storeSubscription;
+
+        CatchUp(Subscription subscription, RangeListener listener) {
+            this.subscription = subscription;
+            this.listener = listener;
+        }
+
+        private boolean isPending() {
+            synchronized (SubscriptionManager.this) {
+                return this.pending;
+            }
+        }
+
+        @Override
+        public void onLocationAdded(String key, GeoLocation location, GeoMotion motion) {
+            if (this.isPending()) {
+                this.listener.onLocationAdded(key, location, motion);
+            }
+        }
+
+        @Override
+        public void onLocationChanged(String key, GeoLocation location, GeoMotion motion) {
+            if (this.isPending()) {
+                this.listener.onLocationChanged(key, location, motion);
+            }
+        }
+
+        @Override
+        public void onLocationRemoved(String key) {
+            if (this.isPending()) {
+                this.listener.onLocationRemoved(this.subscription.range, key);
+            }
+        }
+
+        @Override
+        public void onLoaded() {
+            boolean ready;
+            GeoStore.Subscription cancelled;
+            synchronized (SubscriptionManager.this) {
+                if (!this.pending) {
+                    return;
+                }
+                this.pending = false;
+                // all later events reach the listener through the shared subscription
+                this.subscription.catchUps.remove(this);
+                this.subscription.listeners.add(this.listener);
+                // if the shared subscription is still loading, its onLoaded notifies the listener as well
+                ready = this.subscription.ready;
+                // null if still subscribing, the subscribing thread cancels it
+                cancelled = this.storeSubscription;
+            }
+            if (cancelled != null) {
+                cancelled.cancel();
+            }
+            if (ready) {
+                this.listener.onRangeReady(this.subscription.range);
+            }
+        }
+
+        @Override
+        public void onError(SyncError syncError) {
+            GeoStore.Subscription unused;
+            synchronized (SubscriptionManager.this) {
+                if (!this.pending) {
+                    return;
+                }
+                this.pending = false;
+                this.subscription.catchUps.remove(this);
+                unused = SubscriptionManager.this.removeIfUnused(this.subscription);
+            }
+            if (unused != null) {
+                unused.cancel();
+            }
+            this.listener.onRangeError(this.subscription.range, syncError);
+        }
+    }
+
+    private final WildGeo wildGeo;
+    private final Map<GeoHashQuery, Subscription> subscriptions = new HashMap<GeoHashQuery, Subscription>();
+
+    SubscriptionManager(WildGeo wildGeo) {
+        this.wildGeo = wildGeo;
+    }
+
+    private boolean isActive(Subscription subscription) {
+        return this.subscriptions.get(subscription.range) == subscription;
+    }
+
+    /**
+     * Subscribes the listener to a geohash range. If the range is already subscribed by another listener, the new
+     * listener catches up with a store subscription of its own until that one is loaded.
+     */
+    void subscribe(GeoHashQuery range, RangeListener listener) {
+        Subscription subscription;
+        CatchUp catchUp = null;
+        synchronized (this) {
+            subscription = this.subscriptions.get(range);
+            if (subscription == null) {
+                subscription = new Subscription(range);
+                subscription.listeners.add(listener);
+                this.subscriptions.put(range, subscription);
+            } else {
+                catchUp = new CatchUp(subscription, listener);
+                subscription.catchUps.add(catchUp);
+            }
+        }
+        // subscribed outside of the lock, the store may call back right away
+        GeoStore.Subscription storeSubscription = this.wildGeo.getStore().subscribe(range.getStartValue(),
+                range.getEndValue(), (catchUp == null) ? subscription : catchUp);
+        boolean cancelled;
+        synchronized (this) {
+            if (catchUp == null) {
+                subscription.storeSubscription = storeSubscription;
+                // the last listener may have unsubscribed in the meantime
+                cancelled = !this.isActive(subscription);
+            } else {
+                catchUp.storeSubscription = storeSubscription;
+                // the catch-up may be over already
+                cancelled = !catchUp.pending;
+            }
+        }
+        if (cancelled) {
+            storeSubscription.cancel();
+        }
+    }
+
+    /**
+     * Removes the listener from a geohash range. The store subscription is cancelled once no listener is left.
+     */
+    void unsubscribe(GeoHashQuery range, RangeListener listener) {
+        GeoStore.Subscription catchUpSubscription = null;
+        GeoStore.Subscription unused;
+        synchronized (this) {
+            Subscription subscription = this.subscriptions.get(range);
+            if (subscription == null) {
+                return;
+            }
+            if (!subscription.listeners.remove(listener)) {
+                CatchUp catchUp = subscription.findCatchUp(listener);
+                if (catchUp == null) {
+                    return;
+                }
+                catchUp.pending = false;
+                subscription.catchUps.remove(catchUp);
+                // null if still subscribing, the subscribing thread cancels it
+                catchUpSubscription = catchUp.storeSubscription;
+            }
+            unused = this.removeIfUnused(subscription);
+        }
+        if (catchUpSubscription != null) {
+            catchUpSubscription.cancel();
+        }
+        if (unused != null) {
+            unused.cancel();
+        }
+    }
+
+    /**
+     * Drops a subscription without listeners, called with the lock held.
+     * @return The store subscription to cancel, or null if there is none yet or the subscription is still used
+     */
+    private GeoStore.Subscription removeIfUnused(Subscription subscription) {
+        if (!subscription.listeners.isEmpty() || !subscription.catchUps.isEmpty()) {
+            return null;
+        }
+        this.subscriptions.remove(subscription.range);
+        // still subscribing if null, the subscribing thread cancels it
+        return subscription.storeSubscription;
+    }
+
+    /**
+     * @return The number of ranges currently subscribed on the server
+     */
+    synchronized int getSubscriptionCount() {
+        return this.subscriptions.size();
+    }
+}
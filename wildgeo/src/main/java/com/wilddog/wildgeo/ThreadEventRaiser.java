@@ -1,18 +1,36 @@
 package com.wilddog.wildgeo;
 
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
-class ThreadEventRaiser implements EventRaiser {
+/**
+ * Runs all events on a single background thread, in the order they were raised. This is the default outside of
+ * Android.
+ */
+public class ThreadEventRaiser implements EventRaiser {
 
-    private final ExecutorService executorService;
+    private final ScheduledExecutorService executorService;
 
     public ThreadEventRaiser() {
-        this.executorService = Executors.newSingleThreadExecutor();
+        this.executorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "WildGeo-EventThread");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
     @Override
     public void raiseEvent(Runnable r) {
         this.executorService.submit(r);
     }
+
+    @Override
+    public void raiseEventDelayed(Runnable r, long delayMillis) {
+        this.executorService.schedule(r, delayMillis, TimeUnit.MILLISECONDS);
+    }
 }
@@ -28,18 +28,30 @@
 
 package com.wilddog.wildgeo;
 
-import com.wilddog.client.DataSnapshot;
 import com.wilddog.client.SyncError;
 import com.wilddog.client.SyncReference;
-import com.wilddog.client.ValueEventListener;
-import com.wilddog.wildgeo.core.GeoHash;
+import com.wilddog.wildgeo.store.GeoStore;
+import com.wilddog.wildgeo.store.WilddogGeoStore;
+import com.wilddog.wildgeo.util.BoxFilter;
+import com.wilddog.wildgeo.util.PolygonFilter;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A WildGeo instance is used to store geo location data in Wilddog.
+ * A WildGeo instance is used to store geo location data in Wilddog, or in any other {@link GeoStore}.
  */
 public class WildGeo {
 
@@ -57,84 +69,179 @@ public class WildGeo {
     }
 
     /**
-     * A small wrapper class to forward any events to the LocationEventListener.
+     * A listener that can be used to be notified once a batch of writes was saved on the server or failed.
      */
-    private static class LocationValueEventListener implements ValueEventListener {
+    public static interface BatchCompletionListener {
+        /**
+         * Called once a batch of locations was written to the server or an error occurred. A batch is written as one
+         * atomic multi-path update, so in case of an error every key of the batch is reported as failed with the
+         * same error.
+         * @param failedKeys The keys that could not be written, mapped to their error. Empty if the batch succeeded.
+         */
+        public void onComplete(Map<String, SyncError> failedKeys);
+    }
 
-        private final LocationCallback callback;
+    /**
+     * A listener that is notified once {@link #removeStaleLocations(long, StaleRemovalListener)} is done.
+     */
+    public static interface StaleRemovalListener {
+        /**
+         * Called once all stale keys were removed or an error occurred.
+         * @param removedCount The number of keys that were removed
+         * @param error The error or null if no error occurred
+         */
+        public void onComplete(int removedCount, SyncError error);
+    }
 
-        LocationValueEventListener(LocationCallback callback) {
-            this.callback = callback;
-        }
+    // The number of stale keys read and removed with a single update
+    private static final int STALE_REMOVAL_BATCH_SIZE = 500;
 
-        @Override
-        public void onDataChange(DataSnapshot dataSnapshot) {
-            if (dataSnapshot.getValue() == null) {
-                this.callback.onLocationResult(dataSnapshot.getKey(), null);
-            } else {
-                GeoLocation location = WildGeo.getLocationValue(dataSnapshot);
-                if (location != null) {
-                    this.callback.onLocationResult(dataSnapshot.getKey(), location);
-                } else {
-                    String message = "WildGeo data has invalid format: " + dataSnapshot.getValue();
-                    this.callback.onCancelled(SyncError.fromException(new Throwable(message)));
-                }
-            }
-        }
+    // How long the shared query thread waits for work before it ends, in seconds
+    private static final long QUERY_THREAD_KEEP_ALIVE = 60;
 
-        @Override
-        public void onCancelled(SyncError syncError) {
-            this.callback.onCancelled(syncError);
-        }
+    private static Executor defaultQueryExecutor;
+    private static ScheduledExecutorService defaultQueryTimer;
+
+    private final GeoStore store;
+    private final EventRaiser eventRaiser;
+    private volatile Executor queryExecutor = defaultQueryExecutor();
+    private volatile ScheduledExecutorService queryTimer = defaultQueryTimer();
+    private final SubscriptionManager subscriptionManager;
+    private volatile MetricsSink metricsSink;
+    private volatile LocationCache locationCache;
+    private final AtomicInteger pendingEvents = new AtomicInteger();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong failedWriteCount = new AtomicLong();
+    private final AtomicLong writtenKeyCount = new AtomicLong();
+    private final AtomicLong totalWriteMillis = new AtomicLong();
+
+    /**
+     * Creates a new WildGeo instance at the given Wilddog reference. On Android all events are raised on the main
+     * thread, everywhere else on a single background thread.
+     * @param syncReference The Wilddog reference this WildGeo instance uses
+     */
+    public WildGeo(SyncReference syncReference) {
+        this(syncReference, defaultEventRaiser());
     }
 
-    static GeoLocation getLocationValue(DataSnapshot dataSnapshot) {
-        try {
-            Map data = (Map) dataSnapshot.getValue(Map.class);
-            List<?> location = (List<?>) data.get("l");
-            Number latitudeObj = (Number)location.get(0);
-            Number longitudeObj = (Number)location.get(1);
-            double latitude = latitudeObj.doubleValue();
-            double longitude = longitudeObj.doubleValue();
-            if (location.size() == 2 && GeoLocation.coordinatesValid(latitude, longitude)) {
-                return new GeoLocation(latitude, longitude);
-            } else {
-                return null;
-            }
-        } catch (NullPointerException e) {
-            return null;
-        } catch (ClassCastException e) {
-            return null;
-        }
+    /**
+     * Creates a new WildGeo instance at the given Wilddog reference that raises all events with the given EventRaiser.
+     * @param syncReference The Wilddog reference this WildGeo instance uses
+     * @param eventRaiser The EventRaiser that runs all callbacks of this WildGeo instance and its queries
+     */
+    public WildGeo(SyncReference syncReference, EventRaiser eventRaiser) {
+        this(new WilddogGeoStore(syncReference), eventRaiser);
     }
 
-    private final SyncReference syncReference;
-    private final EventRaiser eventRaiser;
+    /**
+     * Creates a new WildGeo instance at the given Wilddog reference that stores geohashes of the given precision, and
+     * optionally coarse prefixes of them that queries with a large radius use instead, see {@link WilddogGeoStore}.
+     * Events are raised as by {@link #WildGeo(SyncReference)}.
+     * @param syncReference The Wilddog reference this WildGeo instance uses
+     * @param precision The number of characters of the stored geohashes, between 2 and 22
+     * @param indexPrecisions The precisions of additional coarse geohash fields, each smaller than precision
+     */
+    public WildGeo(SyncReference syncReference, int precision, int... indexPrecisions) {
+        this(new WilddogGeoStore(syncReference, precision, indexPrecisions), defaultEventRaiser());
+    }
 
     /**
-     * Creates a new WildGeo instance at the given Wilddog reference.
+     * Creates a new WildGeo instance at the given Wilddog reference that runs all callbacks on the given executor.
      * @param syncReference The Wilddog reference this WildGeo instance uses
+     * @param executor The executor that runs all callbacks of this WildGeo instance and its queries
      */
-    public WildGeo(SyncReference syncReference) {
-        this.syncReference = syncReference;
-        EventRaiser eventRaiser;
+    public WildGeo(SyncReference syncReference, Executor executor) {
+        this(syncReference, new ExecutorEventRaiser(executor));
+    }
+
+    /**
+     * Creates a new WildGeo instance that keeps its locations in the given store, e.g. an {@link
+     * com.wilddog.wildgeo.store.InMemoryGeoStore}. Events are raised as by {@link #WildGeo(SyncReference)}.
+     * @param store The store this WildGeo instance uses
+     */
+    public WildGeo(GeoStore store) {
+        this(store, defaultEventRaiser());
+    }
+
+    /**
+     * Creates a new WildGeo instance that keeps its locations in the given store and raises all events with the given
+     * EventRaiser.
+     * @param store The store this WildGeo instance uses
+     * @param eventRaiser The EventRaiser that runs all callbacks of this WildGeo instance and its queries
+     */
+    public WildGeo(GeoStore store, EventRaiser eventRaiser) {
+        if (store == null || eventRaiser == null) {
+            throw new NullPointerException();
+        }
+        this.store = store;
+        this.eventRaiser = eventRaiser;
+        this.subscriptionManager = new SubscriptionManager(this);
+    }
+
+    private static synchronized Executor defaultQueryExecutor() {
+        if (defaultQueryExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, QUERY_THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "WildGeo-QueryThread");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            // the thread only lives while queries have work
+            executor.allowCoreThreadTimeOut(true);
+            defaultQueryExecutor = executor;
+        }
+        return defaultQueryExecutor;
+    }
+
+    private static synchronized ScheduledExecutorService defaultQueryTimer() {
+        if (defaultQueryTimer == null) {
+            defaultQueryTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "WildGeo-QueryTimer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return defaultQueryTimer;
+    }
+
+    private static EventRaiser defaultEventRaiser() {
         try {
-            eventRaiser = new AndroidEventRaiser();
+            return new AndroidEventRaiser();
         } catch (Throwable e) {
-            throw new RuntimeException("This sdk needs Android environment.");
+            // not on Android, or the android classes are only stubs
+            return new ThreadEventRaiser();
         }
-        this.eventRaiser = eventRaiser;
     }
 
     /**
-     * @return The Wilddog reference this WildGeo instance uses
+     * @return The Wilddog reference this WildGeo instance uses, or null if it does not store its locations in Wilddog
      */
     public SyncReference getSyncReference() {
-        return this.syncReference;
+        return (this.store instanceof WilddogGeoStore) ? ((WilddogGeoStore) this.store).getSyncReference() : null;
+    }
+
+    /**
+     * @return The store this WildGeo instance keeps its locations in
+     */
+    public GeoStore getStore() {
+        return this.store;
     }
 
-    SyncReference wilddogRefForKey(String key) {
-        return this.syncReference.child(key);
+    /**
+     * @return The number of characters of the geohashes the locations are stored with
+     */
+    public int getPrecision() {
+        return this.store.getPrecision();
+    }
+
+    SubscriptionManager getSubscriptionManager() {
+        return this.subscriptionManager;
     }
 
     /**
@@ -153,29 +260,156 @@ public class WildGeo {
      * @param completionListener A listener that is called once the location was successfully saved on the server or an
      *                           error occurred
      */
-    public void setLocation(final String key, final GeoLocation location, final CompletionListener completionListener) {
-        if (key == null) {
+    public void setLocation(String key, GeoLocation location, CompletionListener completionListener) {
+        if (key == null || location == null) {
             throw new NullPointerException();
         }
-        SyncReference keyRef = this.wilddogRefForKey(key);
-        GeoHash geoHash = new GeoHash(location);
-        Map<String, Object> updates = new HashMap<String, Object>();
-        updates.put("g", geoHash.getGeoHashString());
-        updates.put("l", new double[]{location.latitude, location.longitude});
-        if (completionListener != null) {
-            keyRef.setValue(updates, geoHash.getGeoHashString(), new SyncReference.CompletionListener() {
-                @Override
-                public void onComplete(SyncError error, SyncReference syncReference) {
-                    if (completionListener != null) {
-                        completionListener.onComplete(key, error);
-                    }
+        this.writeKey(key, location, null, completionListener);
+    }
+
+    /**
+     * Sets the location for a given key together with the motion it was measured with. Queries with dead reckoning
+     * extrapolate the location from the motion until the next write, see {@link DeadReckoningWriter}.
+     *
+     * @throws IllegalArgumentException If the store can't keep the motion, e.g. a {@link WilddogGeoStore} in the
+     * compact format and a motion with a speed. Nothing is written then.
+     * @param key The key to save the location for
+     * @param location The location of this key
+     * @param motion The speed, bearing and time of the location
+     * @param completionListener A listener that is called once the location was successfully saved on the server or an
+     *                           error occurred, may be null
+     */
+    public void setLocation(String key, GeoLocation location, GeoMotion motion,
+                            CompletionListener completionListener) {
+        if (key == null || location == null || motion == null) {
+            throw new NullPointerException();
+        }
+        this.writeKey(key, location, motion, completionListener);
+    }
+
+    /**
+     * Sets the location for a given key together with the time it was measured. Queries with a maximal age drop keys
+     * that were measured too long ago, see {@link GeoQuery#setMaxAge(long)}, and
+     * {@link #removeStaleLocations(long, StaleRemovalListener)} removes them from the store.
+     *
+     * @throws IllegalArgumentException If the store can't keep the time, e.g. a {@link WilddogGeoStore} in the compact
+     * format and a time before 1970. Nothing is written then.
+     * @param key The key to save the location for
+     * @param location The location of this key
+     * @param timestamp The time the location was measured, in milliseconds since the epoch
+     * @param completionListener A listener that is called once the location was successfully saved on the server or an
+     *                           error occurred, may be null
+     */
+    public void setLocation(String key, GeoLocation location, long timestamp, CompletionListener completionListener) {
+        this.setLocation(key, location, new GeoMotion(0, 0, timestamp), completionListener);
+    }
+
+    private void writeKey(final String key, GeoLocation location, GeoMotion motion,
+                          final CompletionListener completionListener) {
+        final long start = System.nanoTime();
+        Map<String, GeoMotion> motions = (motion == null) ? null : Collections.singletonMap(key, motion);
+        this.store.write(Collections.singletonMap(key, location), motions, new GeoStore.WriteCallback() {
+            @Override
+            public void onComplete(SyncError error) {
+                WildGeo.this.writeCompleted(1, start, error);
+                if (completionListener != null) {
+                    completionListener.onComplete(key, error);
                 }
-            });
-        } else {
-            keyRef.setValue(updates, geoHash.getGeoHashString());
+            }
+        });
+    }
+
+    private void writeCompleted(int keyCount, long start, SyncError error) {
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        this.writeCount.incrementAndGet();
+        if (error != null) {
+            this.failedWriteCount.incrementAndGet();
+        }
+        this.writtenKeyCount.addAndGet(keyCount);
+        this.totalWriteMillis.addAndGet(durationMillis);
+        MetricsSink sink = this.metricsSink;
+        if (sink != null) {
+            sink.onWriteComplete(keyCount, durationMillis, error);
         }
     }
 
+    /**
+     * Sets the locations for multiple keys with a single multi-path update.
+     * @param locations The locations to save, by key
+     */
+    public void setLocations(Map<String, GeoLocation> locations) {
+        this.setLocations(locations, null);
+    }
+
+    /**
+     * Sets the locations for multiple keys with a single multi-path update. This is considerably cheaper than calling
+     * {@link #setLocation(String, GeoLocation)} for each key, as all keys share one round trip to the server.
+     * @param locations The locations to save, by key
+     * @param completionListener A listener that is called once the whole batch was saved on the server or an error
+     *                           occurred
+     */
+    public void setLocations(Map<String, GeoLocation> locations, final BatchCompletionListener completionListener) {
+        for (Map.Entry<String, GeoLocation> entry: locations.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                throw new NullPointerException();
+            }
+        }
+        this.updateBatch(new HashMap<String, GeoLocation>(locations), completionListener);
+    }
+
+    /**
+     * Removes the locations for multiple keys with a single multi-path update.
+     * @param keys The keys to remove from this WildGeo
+     */
+    public void removeLocations(Collection<String> keys) {
+        this.removeLocations(keys, null);
+    }
+
+    /**
+     * Removes the locations for multiple keys with a single multi-path update.
+     * @param keys The keys to remove from this WildGeo
+     * @param completionListener A listener that is called once the whole batch was removed from the server or an
+     *                           error occurred
+     */
+    public void removeLocations(Collection<String> keys, final BatchCompletionListener completionListener) {
+        Map<String, GeoLocation> updates = new HashMap<String, GeoLocation>(keys.size() * 2);
+        for (String key: keys) {
+            if (key == null) {
+                throw new NullPointerException();
+            }
+            updates.put(key, null);
+        }
+        this.updateBatch(updates, completionListener);
+    }
+
+    private void updateBatch(final Map<String, GeoLocation> updates, final BatchCompletionListener completionListener) {
+        if (updates.isEmpty()) {
+            if (completionListener != null) {
+                completionListener.onComplete(Collections.<String, SyncError>emptyMap());
+            }
+            return;
+        }
+        final long start = System.nanoTime();
+        this.store.write(updates, null, new GeoStore.WriteCallback() {
+            @Override
+            public void onComplete(SyncError error) {
+                WildGeo.this.writeCompleted(updates.size(), start, error);
+                if (completionListener == null) {
+                    return;
+                }
+                if (error == null) {
+                    completionListener.onComplete(Collections.<String, SyncError>emptyMap());
+                } else {
+                    Map<String, SyncError> failedKeys = new HashMap<String, SyncError>(updates.size() * 2);
+                    for (String key: updates.keySet()) {
+                        failedKeys.put(key, error);
+                    }
+                    completionListener.onComplete(failedKeys);
+                }
+            }
+        });
+    }
+
     /**
      * Removes the location for a key from this WildGeo.
      * @param key The key to remove from this WildGeo
@@ -190,21 +424,76 @@ public class WildGeo {
      * @param completionListener A completion listener that is called once the location is successfully removed
      *                           from the server or an error occurred
      */
-    public void removeLocation(final String key, final CompletionListener completionListener) {
+    public void removeLocation(String key, CompletionListener completionListener) {
         if (key == null) {
             throw new NullPointerException();
         }
-        SyncReference keyRef = this.wilddogRefForKey(key);
-        if (completionListener != null) {
-            keyRef.setValue(null, new SyncReference.CompletionListener() {
-                @Override
-                public void onComplete(SyncError error, SyncReference wilddog) {
-                    completionListener.onComplete(key, error);
-                }
-            });
-        } else {
-            keyRef.setValue(null);
+        this.writeKey(key, null, null, completionListener);
+    }
+
+    /**
+     * Removes all keys whose location was measured at least the given time ago, e.g. left behind by devices that
+     * crashed. The keys are read in batches of 500, oldest first, and each key is only removed if its stored time is
+     * still old enough, so a key that is written again meanwhile stays. Only keys written with a timestamp or motion
+     * can be stale. Stores in Wilddog need ".indexOn": "t" for this.
+     *
+     * @throws IllegalStateException If the store can't search for stale keys, e.g. a {@link WilddogGeoStore} in the
+     * compact format
+     * @param maxAge The age in milliseconds from which on keys are removed
+     * @param completionListener A listener that is called once all stale keys were removed or an error occurred, may
+     *                           be null
+     */
+    public void removeStaleLocations(long maxAge, StaleRemovalListener completionListener) {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("Maximal age must not be negative!");
         }
+        this.removeStaleBatch(System.currentTimeMillis() - maxAge, 0, completionListener);
+    }
+
+    private void removeStaleBatch(final long timestamp, final int removedCount,
+                                  final StaleRemovalListener completionListener) {
+        this.store.readStaleKeys(timestamp, STALE_REMOVAL_BATCH_SIZE, new GeoStore.KeysCallback() {
+            @Override
+            public void onKeysResult(final List<String> keys) {
+                if (keys.isEmpty()) {
+                    if (completionListener != null) {
+                        completionListener.onComplete(removedCount, null);
+                    }
+                    return;
+                }
+                final long start = System.nanoTime();
+                WildGeo.this.store.removeStaleKeys(keys, timestamp, new GeoStore.KeysCallback() {
+                    @Override
+                    public void onKeysResult(List<String> removedKeys) {
+                        WildGeo.this.writeCompleted(removedKeys.size(), start, null);
+                        int removed = removedCount + removedKeys.size();
+                        // a full batch of keys that were all written again meanwhile ends the removal as well
+                        if (keys.size() < STALE_REMOVAL_BATCH_SIZE || removedKeys.isEmpty()) {
+                            if (completionListener != null) {
+                                completionListener.onComplete(removed, null);
+                            }
+                        } else {
+                            WildGeo.this.removeStaleBatch(timestamp, removed, completionListener);
+                        }
+                    }
+
+                    @Override
+                    public void onError(SyncError error) {
+                        WildGeo.this.writeCompleted(keys.size(), start, error);
+                        if (completionListener != null) {
+                            completionListener.onComplete(removedCount, error);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onError(SyncError error) {
+                if (completionListener != null) {
+                    completionListener.onComplete(removedCount, error);
+                }
+            }
+        });
     }
 
     /**
@@ -213,10 +502,18 @@ public class WildGeo {
      * @param key The key whose location to get
      * @param callback The callback that is called once the location is retrieved
      */
-    public void getLocation(String key, LocationCallback callback) {
-        SyncReference keyWilddog = this.wilddogRefForKey(key);
-        LocationValueEventListener valueListener = new LocationValueEventListener(callback);
-        keyWilddog.addListenerForSingleValueEvent(valueListener);
+    public void getLocation(String key, final LocationCallback callback) {
+        this.store.read(key, new GeoStore.ReadCallback() {
+            @Override
+            public void onLocationResult(String key, GeoLocation location) {
+                callback.onLocationResult(key, location);
+            }
+
+            @Override
+            public void onError(SyncError error) {
+                callback.onCancelled(error);
+            }
+        });
     }
 
     /**
@@ -229,7 +526,147 @@ public class WildGeo {
         return new GeoQuery(this, center, radius);
     }
 
+    /**
+     * Returns a new Query object for the given box, e.g. the visible region of a map. Events are raised the same way
+     * as for a circle. A box whose south west corner lies east of its north east corner crosses the 180th meridian.
+     * @param southWest The south west corner of the box
+     * @param northEast The north east corner of the box
+     * @return The new GeoQuery object
+     */
+    public GeoQuery queryWithinBox(GeoLocation southWest, GeoLocation northEast) {
+        return new GeoQuery(this, new BoxFilter(southWest, northEast));
+    }
+
+    /**
+     * Returns a new Query object for the given polygon, e.g. a service zone. Events are raised the same way as for a
+     * circle. The edges of the polygon are straight lines in latitude/longitude; the polygon may cross the 180th
+     * meridian, but must not contain a pole.
+     * @param vertices The vertices of the polygon, at least three
+     * @return The new GeoQuery object
+     */
+    public GeoQuery queryWithinPolygon(List<GeoLocation> vertices) {
+        return new GeoQuery(this, new PolygonFilter(vertices));
+    }
+
+    /**
+     * Finds the keys closest to the given center. Rings of geohash cells around the center are read one after the
+     * other, starting with the innermost, until the k closest keys are known for certain or the maximal radius is
+     * reached. Nothing stays subscribed once the callback was called.
+     * @param center The center to search around
+     * @param k The number of keys to find, at least one
+     * @param maxRadius The maximal distance of a key from the center, in kilometers
+     * @param callback The callback that is called with up to k keys, closest first, or with an error
+     */
+    public void queryNearest(GeoLocation center, int k, double maxRadius, NearestQueryCallback callback) {
+        if (center == null || callback == null) {
+            throw new NullPointerException();
+        }
+        if (k < 1) {
+            throw new IllegalArgumentException("At least one key must be queried!");
+        }
+        if (maxRadius <= 0) {
+            throw new IllegalArgumentException("The maximal radius must be positive!");
+        }
+        // convert from kilometers to meters
+        new NearestQuery(this, center, k, maxRadius*1000, callback).start();
+    }
+
+    /**
+     * Returns a snapshot of the counters of this WildGeo instance. The counters of each query are available through
+     * {@link GeoQuery#getMetrics()}.
+     * @return The current metrics
+     */
+    public WildGeoMetrics getMetrics() {
+        return new WildGeoMetrics(this.subscriptionManager.getSubscriptionCount(), this.pendingEvents.get(),
+                this.writeCount.get(), this.failedWriteCount.get(), this.writtenKeyCount.get(),
+                this.totalWriteMillis.get());
+    }
+
+    /**
+     * Sets the sink that receives the measurements of this WildGeo instance and all of its queries as they happen.
+     * @param metricsSink The sink, or null to stop reporting
+     */
+    public void setMetricsSink(MetricsSink metricsSink) {
+        this.metricsSink = metricsSink;
+    }
+
+    /**
+     * Sets the executor that queries created from now on process store events and new criteria on. Each query runs its
+     * work one task at a time, so the executor may have several threads and may be shared with other work, but it
+     * must not run the events of listeners that call {@link GeoQuery#getSnapshot()} unless it is a direct executor. By
+     * default, all queries share a single background thread.
+     * @param queryExecutor The executor the queries do their work on
+     */
+    public void setQueryExecutor(Executor queryExecutor) {
+        if (queryExecutor == null) {
+            throw new NullPointerException();
+        }
+        this.queryExecutor = queryExecutor;
+    }
+
+    /**
+     * Sets the scheduler that queries created from now on run their timers on, e.g. for dead reckoning, expiring
+     * locations and publishing snapshots. The timers only queue a task on the query executor, so the scheduler never
+     * runs query work or listener callbacks itself. By default, all queries share a single background thread.
+     * @param queryTimer The scheduler the queries run their timers on
+     */
+    public void setQueryTimer(ScheduledExecutorService queryTimer) {
+        if (queryTimer == null) {
+            throw new NullPointerException();
+        }
+        this.queryTimer = queryTimer;
+    }
+
+    /**
+     * Sets the cache that keeps the last known locations across restarts, see {@link LocationCache}. Queries report
+     * cached locations as provisional keys until the store confirmed or dropped them.
+     * @param locationCache The cache, or null to use none
+     */
+    public void setLocationCache(LocationCache locationCache) {
+        this.locationCache = locationCache;
+    }
+
+    /**
+     * @return The cache of last known locations, or null if none is used
+     */
+    public LocationCache getLocationCache() {
+        return this.locationCache;
+    }
+
+    MetricsSink getMetricsSink() {
+        return this.metricsSink;
+    }
+
+    EventRaiser getEventRaiser() {
+        return this.eventRaiser;
+    }
+
+    Executor getQueryExecutor() {
+        return this.queryExecutor;
+    }
+
+    ScheduledExecutorService getQueryTimer() {
+        return this.queryTimer;
+    }
+
+    /**
+     * Raises an event for a listener. The event has to call {@link #eventDelivered()} when it runs, so that the
+     * pending events can be counted without wrapping each of them.
+     */
     void raiseEvent(Runnable r) {
+        this.pendingEvents.incrementAndGet();
         this.eventRaiser.raiseEvent(r);
     }
+
+    /**
+     * Raises an event for a listener after the given delay, see {@link #raiseEvent(Runnable)}.
+     */
+    void raiseEventDelayed(Runnable r, long delayMillis) {
+        this.pendingEvents.incrementAndGet();
+        this.eventRaiser.raiseEventDelayed(r, delayMillis);
+    }
+
+    void eventDelivered() {
+        this.pendingEvents.decrementAndGet();
+    }
 }
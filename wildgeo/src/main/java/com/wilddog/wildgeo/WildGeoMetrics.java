@@ -0,0 +1,103 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+/**
+ * A snapshot of the counters of a WildGeo instance, see {@link WildGeo#getMetrics()}.
+ */
+public final class WildGeoMetrics {
+
+    private final int subscribedRanges;
+    private final int pendingEvents;
+    private final long writeCount;
+    private final long failedWriteCount;
+    private final long writtenKeyCount;
+    private final long totalWriteMillis;
+
+    WildGeoMetrics(int subscribedRanges, int pendingEvents, long writeCount, long failedWriteCount,
+                   long writtenKeyCount, long totalWriteMillis) {
+        this.subscribedRanges = subscribedRanges;
+        this.pendingEvents = pendingEvents;
+        this.writeCount = writeCount;
+        this.failedWriteCount = failedWriteCount;
+        this.writtenKeyCount = writtenKeyCount;
+        this.totalWriteMillis = totalWriteMillis;
+    }
+
+    /**
+     * @return The number of geohash ranges currently subscribed in the store, shared by all queries
+     */
+    public int getSubscribedRanges() {
+        return this.subscribedRanges;
+    }
+
+    /**
+     * @return The number of listener events handed to the EventRaiser that did not run yet, including deliveries to
+     * batch listeners that wait for their dispatch window
+     */
+    public int getPendingEvents() {
+        return this.pendingEvents;
+    }
+
+    /**
+     * @return The number of completed writes, each of which may contain several keys
+     */
+    public long getWriteCount() {
+        return this.writeCount;
+    }
+
+    /**
+     * @return The number of completed writes that failed
+     */
+    public long getFailedWriteCount() {
+        return this.failedWriteCount;
+    }
+
+    /**
+     * @return The number of keys written or removed by all completed writes
+     */
+    public long getWrittenKeyCount() {
+        return this.writtenKeyCount;
+    }
+
+    /**
+     * @return The average time from issuing a write until the store confirmed it, in milliseconds, or 0 if there was
+     * no write yet
+     */
+    public double getAverageWriteMillis() {
+        return (this.writeCount == 0) ? 0 : (double)this.totalWriteMillis/this.writeCount;
+    }
+
+    @Override
+    public String toString() {
+        return "WildGeoMetrics{subscribedRanges=" + subscribedRanges + ", pendingEvents=" + pendingEvents +
+                ", writeCount=" + writeCount + ", failedWriteCount=" + failedWriteCount + ", writtenKeyCount=" +
+                writtenKeyCount + ", averageWriteMillis=" + getAverageWriteMillis() + "}";
+    }
+}
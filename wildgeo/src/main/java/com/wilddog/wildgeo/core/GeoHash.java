@@ -4,10 +4,14 @@ import com.wilddog.wildgeo.GeoLocation;
 import com.wilddog.wildgeo.util.Base32Utils;
 
 public class GeoHash {
-    private final String geoHash;
+    // bit representation for precisions up to GeoHashCodec.MAX_LONG_PRECISION, unused otherwise
+    private final long bits;
+    private final int precision;
+    // created lazily for long backed hashes, as most hashes are never written or compared as strings
+    private String geoHash;
 
     // The default precision of a geohash
-    private static final int DEFAULT_PRECISION = 10;
+    public static final int DEFAULT_PRECISION = 10;
 
     // The maximal precision of a geohash
     public static final int MAX_PRECISION = 22;
@@ -33,8 +37,28 @@ public class GeoHash {
         if (!GeoLocation.coordinatesValid(latitude, longitude)) {
             throw new IllegalArgumentException(String.format("Not valid location coordinates: [%f, %f]", latitude, longitude));
         }
-        double[] longitudeRange = { -180, 180 };
-        double[] latitudeRange = { -90, 90 };
+        this.precision = precision;
+        if (precision <= GeoHashCodec.MAX_LONG_PRECISION) {
+            this.bits = GeoHashCodec.encode(latitude, longitude, precision);
+            this.geoHash = null;
+        } else {
+            this.bits = 0;
+            this.geoHash = encodeString(latitude, longitude, precision);
+        }
+    }
+
+    public GeoHash(String hash) {
+        if (hash.length() == 0 || !Base32Utils.isValidBase32String(hash)) {
+            throw new IllegalArgumentException("Not a valid geoHash: " + hash);
+        }
+        this.precision = hash.length();
+        this.bits = (this.precision <= GeoHashCodec.MAX_LONG_PRECISION) ? GeoHashCodec.fromBase32(hash) : 0;
+        this.geoHash = hash;
+    }
+
+    private static String encodeString(double latitude, double longitude, int precision) {
+        double longitudeMin = -180, longitudeMax = 180;
+        double latitudeMin = -90, latitudeMax = 90;
 
         char[] buffer = new char[precision];
 
@@ -42,31 +66,60 @@ public class GeoHash {
             int hashValue = 0;
             for (int j = 0; j < Base32Utils.BITS_PER_BASE32_CHAR; j++) {
                 boolean even = (((i*Base32Utils.BITS_PER_BASE32_CHAR) + j) % 2) == 0;
-                double val = even ? longitude : latitude;
-                double[] range = even ? longitudeRange : latitudeRange;
-                double mid = (range[0] + range[1])/2;
-                if (val > mid) {
-                    hashValue = (hashValue << 1) + 1;
-                    range[0] = mid;
+                if (even) {
+                    double mid = (longitudeMin + longitudeMax)/2;
+                    if (longitude > mid) {
+                        hashValue = (hashValue << 1) + 1;
+                        longitudeMin = mid;
+                    } else {
+                        hashValue = (hashValue << 1);
+                        longitudeMax = mid;
+                    }
                 } else {
-                    hashValue = (hashValue << 1);
-                    range[1] = mid;
+                    double mid = (latitudeMin + latitudeMax)/2;
+                    if (latitude > mid) {
+                        hashValue = (hashValue << 1) + 1;
+                        latitudeMin = mid;
+                    } else {
+                        hashValue = (hashValue << 1);
+                        latitudeMax = mid;
+                    }
                 }
             }
             buffer[i] = Base32Utils.valueToBase32Char(hashValue);
         }
-        this.geoHash = new String(buffer);
+        return new String(buffer);
     }
 
-    public GeoHash(String hash) {
-        if (hash.length() == 0 || !Base32Utils.isValidBase32String(hash)) {
-            throw new IllegalArgumentException("Not a valid geoHash: " + hash);
+    /**
+     * @return True if this hash is backed by its bit representation, see {@link #getBits()}
+     */
+    public boolean hasBits() {
+        return this.precision <= GeoHashCodec.MAX_LONG_PRECISION;
+    }
+
+    /**
+     * @throws IllegalStateException If the precision of this hash is too large to be represented as long
+     * @return The bits of this hash as encoded by {@link GeoHashCodec}
+     */
+    public long getBits() {
+        if (!this.hasBits()) {
+            throw new IllegalStateException("GeoHash with precision " + this.precision + " has no bit representation");
         }
-        this.geoHash = hash;
+        return this.bits;
+    }
+
+    public int getPrecision() {
+        return this.precision;
     }
 
     public String getGeoHashString() {
-        return this.geoHash;
+        String hash = this.geoHash;
+        if (hash == null) {
+            hash = GeoHashCodec.toBase32(this.bits, this.precision);
+            this.geoHash = hash;
+        }
+        return hash;
     }
 
     @Override
@@ -76,18 +129,28 @@ public class GeoHash {
 
         GeoHash other = (GeoHash) o;
 
-        return this.geoHash.equals(other.geoHash);
+        if (this.precision != other.precision) return false;
+        if (this.hasBits()) {
+            return this.bits == other.bits;
+        } else {
+            return this.geoHash.equals(other.geoHash);
+        }
     }
 
     @Override
     public String toString() {
         return "GeoHash{" +
-                "geoHash='" + geoHash + '\'' +
+                "geoHash='" + getGeoHashString() + '\'' +
                 '}';
     }
 
     @Override
     public int hashCode() {
-        return this.geoHash.hashCode();
+        if (this.hasBits()) {
+            int result = (int)(this.bits ^ (this.bits >>> 32));
+            return 31 * result + this.precision;
+        } else {
+            return this.geoHash.hashCode();
+        }
     }
 }
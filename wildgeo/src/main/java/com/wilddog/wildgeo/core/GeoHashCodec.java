@@ -0,0 +1,116 @@
+package com.wilddog.wildgeo.core;
+
+import com.wilddog.wildgeo.util.Base32Utils;
+
+/**
+ * Encodes and decodes geohashes as plain longs. The bits of a geohash with precision p are stored in the lowest
+ * p*5 bits of the long, with the first (longitude) bit being the most significant one.
+ */
+public final class GeoHashCodec {
+
+    // The maximal precision that fits into a long
+    public static final int MAX_LONG_PRECISION = 12;
+
+    // Number of bits each coordinate is quantized to before interleaving
+    private static final int QUANTIZATION_BITS = 32;
+
+    private static final double QUANTIZATION_SCALE = 4294967296.0; // 2^32
+
+    private static final long MAX_QUANTIZED = 0xffffffffL;
+
+    private GeoHashCodec() {
+    }
+
+    /**
+     * Returns the geohash bits of the given coordinates. Cells are half open towards the south and west, i.e. a
+     * coordinate on the edge of a cell belongs to the lower cell, the same convention the string encoding always used.
+     */
+    public static long encode(double latitude, double longitude, int precision) {
+        if (precision < 1 || precision > MAX_LONG_PRECISION) {
+            throw new IllegalArgumentException("Precision must be between 1 and " + MAX_LONG_PRECISION + ": " + precision);
+        }
+        long latBits = quantize((latitude + 90)/180);
+        long lonBits = quantize((longitude + 180)/360);
+        long interleaved = (spread(lonBits) << 1) | spread(latBits);
+        return interleaved >>> (64 - precision*Base32Utils.BITS_PER_BASE32_CHAR);
+    }
+
+    public static String toBase32(long bits, int precision) {
+        return Base32Utils.bitsToBase32String(bits, precision);
+    }
+
+    public static long fromBase32(String hash) {
+        if (hash.length() > MAX_LONG_PRECISION) {
+            throw new IllegalArgumentException("GeoHash too long to be encoded as long: " + hash);
+        }
+        return Base32Utils.base32StringToBits(hash);
+    }
+
+    /**
+     * Writes the bounds of the cell described by the geohash bits into the given array as
+     * [latitudeMin, latitudeMax, longitudeMin, longitudeMax].
+     */
+    public static void decodeBounds(long bits, int precision, double[] bounds) {
+        decodeCellBounds(bits, precision*Base32Utils.BITS_PER_BASE32_CHAR, bounds);
+    }
+
+    /**
+     * Same as {@link #decodeBounds(long, int, double[])} for a geohash prefix of an arbitrary number of bits, which
+     * need not be a multiple of the bits per base32 character.
+     */
+    public static void decodeCellBounds(long bits, int totalBits, double[] bounds) {
+        if (totalBits < 1 || totalBits > MAX_LONG_PRECISION*Base32Utils.BITS_PER_BASE32_CHAR) {
+            throw new IllegalArgumentException("Number of bits must be between 1 and " +
+                    MAX_LONG_PRECISION*Base32Utils.BITS_PER_BASE32_CHAR + ": " + totalBits);
+        }
+        // left align so that the first longitude bit lands on bit 63
+        long aligned = bits << (64 - totalBits);
+        int lonBitCount = (totalBits + 1)/2;
+        int latBitCount = totalBits/2;
+        long lonBits = compact(aligned >>> 1) >>> (QUANTIZATION_BITS - lonBitCount);
+        long latBits = compact(aligned) >>> (QUANTIZATION_BITS - latBitCount);
+        double latitudeCell = 180.0/(1L << latBitCount);
+        double longitudeCell = 360.0/(1L << lonBitCount);
+        bounds[0] = -90 + latBits*latitudeCell;
+        bounds[1] = bounds[0] + latitudeCell;
+        bounds[2] = -180 + lonBits*longitudeCell;
+        bounds[3] = bounds[2] + longitudeCell;
+    }
+
+    /**
+     * Maps a value in [0, 1] to the index of the 2^32 cell it lies in, with values on a boundary going to the lower
+     * cell.
+     */
+    private static long quantize(double fraction) {
+        long value = (long)Math.ceil(fraction*QUANTIZATION_SCALE) - 1;
+        if (value < 0) {
+            return 0;
+        } else if (value > MAX_QUANTIZED) {
+            return MAX_QUANTIZED;
+        } else {
+            return value;
+        }
+    }
+
+    // spreads the lower 32 bits of x to the even bits of the result
+    private static long spread(long x) {
+        x &= 0x00000000ffffffffL;
+        x = (x | (x << 16)) & 0x0000ffff0000ffffL;
+        x = (x | (x << 8)) & 0x00ff00ff00ff00ffL;
+        x = (x | (x << 4)) & 0x0f0f0f0f0f0f0f0fL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    // inverse of spread: collects the even bits of x into the lower 32 bits of the result
+    private static long compact(long x) {
+        x &= 0x5555555555555555L;
+        x = (x | (x >>> 1)) & 0x3333333333333333L;
+        x = (x | (x >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+        x = (x | (x >>> 4)) & 0x00ff00ff00ff00ffL;
+        x = (x | (x >>> 8)) & 0x0000ffff0000ffffL;
+        x = (x | (x >>> 16)) & 0x00000000ffffffffL;
+        return x;
+    }
+}
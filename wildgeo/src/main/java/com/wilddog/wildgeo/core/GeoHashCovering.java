@@ -0,0 +1,243 @@
+package com.wilddog.wildgeo.core;
+
+import com.wilddog.wildgeo.GeoLocation;
+import com.wilddog.wildgeo.util.Base32Utils;
+import com.wilddog.wildgeo.util.CircleFilter;
+import com.wilddog.wildgeo.util.Constants;
+import com.wilddog.wildgeo.util.GeoArea;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Covers a circle, or any other {@link GeoArea}, with geohash ranges. Unlike
+ * {@link GeoHashQuery#queriesAtLocation(GeoLocation, double)}, which uses the cells of a fixed precision around nine
+ * sample points, the covering starts with the whole world and keeps splitting the largest cell that crosses the area,
+ * dropping halves outside of it, for as long as the number of resulting ranges stays within the given limit. More
+ * ranges mean more server queries, but less area outside of the area whose locations are downloaded for nothing.
+ */
+public class GeoHashCovering {
+
+    // Cells are refined at most this many bits beyond the precision GeoHashQuery would use for the radius
+    private static final int REFINEMENT_BITS = 6;
+
+    // All cells are compared as ranges of hashes with this many bits
+    private static final int RANGE_BITS = GeoHashCodec.MAX_LONG_PRECISION * Base32Utils.BITS_PER_BASE32_CHAR;
+
+    private static final double EARTH_MEAN_RADIUS = (Constants.EARTH_EQ_RADIUS + Constants.EARTH_POLAR_RADIUS)/2;
+
+    private static class Cell implements Comparable<Cell> {
+        final long prefix;
+        final int bits;
+        final long start;
+        final long end;
+        final double[] bounds = new double[4];
+        final double area;
+        int status;
+
+        Cell(long prefix, int bits) {
+            this.prefix = prefix;
+            this.bits = bits;
+            this.start = prefix << (RANGE_BITS - bits);
+            this.end = (prefix + 1) << (RANGE_BITS - bits);
+            if (bits == 0) {
+                this.bounds[0] = -90;
+                this.bounds[1] = 90;
+                this.bounds[2] = -180;
+                this.bounds[3] = 180;
+            } else {
+                GeoHashCodec.decodeCellBounds(prefix, bits, this.bounds);
+            }
+            this.area = boxArea(this.bounds);
+        }
+
+        @Override
+        public int compareTo(Cell other) {
+            // largest cells first
+            return Double.compare(other.area, this.area);
+        }
+    }
+
+    private final Set<GeoHashQuery> queries;
+    private final double coveredArea;
+    private final double area;
+
+    private GeoHashCovering(Set<GeoHashQuery> queries, double coveredArea, double area) {
+        this.queries = queries;
+        this.coveredArea = coveredArea;
+        this.area = area;
+    }
+
+    /**
+     * Computes the covering of a circle.
+     * @param location The center of the circle
+     * @param radius The radius of the circle in meters
+     * @param maxRanges The maximal number of geohash ranges of the covering, at least one
+     * @return The covering
+     */
+    public static GeoHashCovering atLocation(GeoLocation location, double radius, int maxRanges) {
+        return forArea(new CircleFilter(location, radius), maxRanges);
+    }
+
+    /**
+     * Computes the covering of an area.
+     * @param area The area to cover
+     * @param maxRanges The maximal number of geohash ranges of the covering, at least one
+     * @return The covering
+     */
+    public static GeoHashCovering forArea(GeoArea area, int maxRanges) {
+        return forArea(area, maxRanges, GeoHash.DEFAULT_PRECISION);
+    }
+
+    /**
+     * Computes the covering of an area for locations stored with geohashes of the given precision.
+     * @param area The area to cover
+     * @param maxRanges The maximal number of geohash ranges of the covering, at least one
+     * @param storagePrecision The precision of the stored geohashes
+     * @return The covering
+     */
+    public static GeoHashCovering forArea(GeoArea area, int maxRanges, int storagePrecision) {
+        if (maxRanges < 1) {
+            throw new IllegalArgumentException("A covering needs at least one range!");
+        }
+        // keep range bounds shorter than stored geohashes, so the inclusive endAt of a query does not matter
+        int maxBits = Math.min((storagePrecision - 1) * Base32Utils.BITS_PER_BASE32_CHAR,
+                Math.max(1, GeoHashQuery.Utils.bitsForBoundingBox(area.getCenter(), area.getSize())) + REFINEMENT_BITS);
+
+        TreeMap<Long, Cell> cells = new TreeMap<Long, Cell>();
+        PriorityQueue<Cell> partialCells = new PriorityQueue<Cell>();
+        Cell world = new Cell(0, 0);
+        world.status = GeoArea.CELL_PARTIAL;
+        cells.put(world.start, world);
+        partialCells.add(world);
+        int rangeCount = 1;
+
+        while (!partialCells.isEmpty()) {
+            Cell cell = partialCells.poll();
+            if (cell.bits >= maxBits) {
+                continue;
+            }
+            List<Cell> children = new ArrayList<Cell>(2);
+            for (int i = 0; i < 2; i++) {
+                Cell child = new Cell((cell.prefix << 1) | i, cell.bits + 1);
+                double[] bounds = child.bounds;
+                child.status = area.relateToCell(bounds[0], bounds[1], bounds[2], bounds[3]);
+                if (child.status != GeoArea.CELL_OUTSIDE) {
+                    children.add(child);
+                }
+            }
+            Map.Entry<Long, Cell> before = cells.lowerEntry(cell.start);
+            Map.Entry<Long, Cell> after = cells.higherEntry(cell.start);
+            Cell previous = (before == null) ? null : before.getValue();
+            Cell next = (after == null) ? null : after.getValue();
+            int newRangeCount = rangeCount - rangesBetween(previous, Collections.singletonList(cell), next) +
+                    rangesBetween(previous, children, next);
+            if (newRangeCount > maxRanges) {
+                // splitting this cell would open a gap we have no budget for
+                continue;
+            }
+            rangeCount = newRangeCount;
+            cells.remove(cell.start);
+            for (Cell child: children) {
+                cells.put(child.start, child);
+                if (child.status == GeoArea.CELL_PARTIAL) {
+                    partialCells.add(child);
+                }
+            }
+        }
+
+        Set<GeoHashQuery> queries = new HashSet<GeoHashQuery>();
+        double coveredArea = 0;
+        long rangeStart = -1;
+        long rangeEnd = -1;
+        for (Cell cell: cells.values()) {
+            coveredArea += cell.area;
+            if (cell.start != rangeEnd) {
+                if (rangeStart != -1) {
+                    queries.add(queryForRange(rangeStart, rangeEnd));
+                }
+                rangeStart = cell.start;
+            }
+            rangeEnd = cell.end;
+        }
+        if (rangeStart != -1) {
+            queries.add(queryForRange(rangeStart, rangeEnd));
+        }
+        return new GeoHashCovering(queries, coveredArea, area.getArea());
+    }
+
+    // the number of ranges the cells form, counting only gaps to the given neighbours
+    private static int rangesBetween(Cell previous, List<Cell> cells, Cell next) {
+        int ranges = 0;
+        long lastEnd = (previous == null) ? -1 : previous.end;
+        for (Cell cell: cells) {
+            if (cell.start != lastEnd) {
+                ranges++;
+            }
+            lastEnd = cell.end;
+        }
+        if (next != null && next.start != lastEnd) {
+            ranges++;
+        }
+        return ranges;
+    }
+
+    private static GeoHashQuery queryForRange(long start, long end) {
+        String endValue;
+        if (end == (1L << RANGE_BITS)) {
+            endValue = "~";
+        } else {
+            endValue = trimmedBase32(end);
+        }
+        return new GeoHashQuery(trimmedBase32(start), endValue);
+    }
+
+    // the shortest base32 string that compares to stored geohashes the same way as the range bound does
+    private static String trimmedBase32(long value) {
+        int length = GeoHashCodec.MAX_LONG_PRECISION;
+        while (length > 1 && (value & 0x1f) == 0) {
+            value >>>= Base32Utils.BITS_PER_BASE32_CHAR;
+            length--;
+        }
+        return GeoHashCodec.toBase32(value, length);
+    }
+
+    private static double boxArea(double[] bounds) {
+        double latitudeFactor = Math.sin(Math.toRadians(bounds[1])) - Math.sin(Math.toRadians(bounds[0]));
+        return EARTH_MEAN_RADIUS * EARTH_MEAN_RADIUS * Math.toRadians(bounds[3] - bounds[2]) * latitudeFactor;
+    }
+
+    /**
+     * @return The geohash queries of this covering
+     */
+    public Set<GeoHashQuery> getQueries() {
+        return this.queries;
+    }
+
+    /**
+     * @return The area covered by all queries, in square meters
+     */
+    public double getCoveredArea() {
+        return this.coveredArea;
+    }
+
+    /**
+     * @return The area of the covered circle or area, in square meters
+     */
+    public double getArea() {
+        return this.area;
+    }
+
+    /**
+     * @return The estimated area that is covered by the queries but not part of the circle or area, in square meters
+     */
+    public double getFalsePositiveArea() {
+        return Math.max(0, this.coveredArea - this.area);
+    }
+}
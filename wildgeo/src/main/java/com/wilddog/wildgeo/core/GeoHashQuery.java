@@ -32,23 +32,62 @@ public class GeoHashQuery {
         }
     }
 
+    // value of the '~' end marker when comparing bit representations, one larger than any base32 value
+    private static final int END_MARKER_VALUE = 32;
+
     private final String startValue;
     private final String endValue;
 
+    // bit representations of start and end value, NO_BITS if they can't be compared as longs
+    public static final long NO_BITS = -1;
+    private final long startBits;
+    private final long endBits;
+
     public GeoHashQuery(String startValue, String endValue) {
         this.startValue = startValue;
         this.endValue = endValue;
+        this.startBits = boundToBits(startValue);
+        this.endBits = boundToBits(endValue);
+    }
+
+    private static long boundToBits(String value) {
+        if (value.length() > GeoHashCodec.MAX_LONG_PRECISION) {
+            return NO_BITS;
+        }
+        long bits = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            int charValue;
+            if (c == '~' && i == value.length() - 1) {
+                charValue = END_MARKER_VALUE;
+            } else if (Base32Utils.isValidBase32Char(c)) {
+                charValue = Base32Utils.base32CharToValue(c);
+            } else {
+                return NO_BITS;
+            }
+            // the end marker carries over into the previous digit, which keeps the ordering intact
+            bits = (bits << Base32Utils.BITS_PER_BASE32_CHAR) + charValue;
+        }
+        return bits;
     }
 
     public static GeoHashQuery queryForGeoHash(GeoHash geohash, int bits) {
-        String hash = geohash.getGeoHashString();
         int precision = (int)Math.ceil((double)bits/Base32Utils.BITS_PER_BASE32_CHAR);
-        if (hash.length() < precision) {
+        if (geohash.getPrecision() < precision) {
+            String hash = geohash.getGeoHashString();
             return new GeoHashQuery(hash, hash+"~");
         }
-        hash = hash.substring(0, precision);
-        String base = hash.substring(0, hash.length() - 1);
-        int lastValue = Base32Utils.base32CharToValue(hash.charAt(hash.length() - 1));
+        String base;
+        int lastValue;
+        if (geohash.hasBits()) {
+            long prefix = geohash.getBits() >>> ((geohash.getPrecision() - precision)*Base32Utils.BITS_PER_BASE32_CHAR);
+            base = GeoHashCodec.toBase32(prefix >>> Base32Utils.BITS_PER_BASE32_CHAR, precision - 1);
+            lastValue = (int)(prefix & 0x1f);
+        } else {
+            String hash = geohash.getGeoHashString().substring(0, precision);
+            base = hash.substring(0, hash.length() - 1);
+            lastValue = Base32Utils.base32CharToValue(hash.charAt(hash.length() - 1));
+        }
         int significantBits = bits - (base.length() * Base32Utils.BITS_PER_BASE32_CHAR);
         int unusedBits = (Base32Utils.BITS_PER_BASE32_CHAR - significantBits);
         // delete unused bits
@@ -65,7 +104,17 @@ public class GeoHashQuery {
     }
 
     public static Set<GeoHashQuery> queriesAtLocation(GeoLocation location, double radius) {
-        int queryBits = Math.max(1, Utils.bitsForBoundingBox(location, radius));
+        return queriesAtLocation(location, radius, GeoHash.DEFAULT_PRECISION);
+    }
+
+    /**
+     * Returns the queries for a circle around a location, for locations stored with geohashes of the given precision.
+     * The bounds of the queries are kept shorter than the stored geohashes, so the inclusive end of a range does not
+     * matter.
+     */
+    public static Set<GeoHashQuery> queriesAtLocation(GeoLocation location, double radius, int storagePrecision) {
+        int maxBits = (storagePrecision - 1)*Base32Utils.BITS_PER_BASE32_CHAR;
+        int queryBits = Math.max(1, Math.min(maxBits, Utils.bitsForBoundingBox(location, radius)));
         int geoHashPrecision = (int)(Math.ceil(queryBits/Base32Utils.BITS_PER_BASE32_CHAR));
 
         double latitude = location.latitude;
@@ -101,7 +150,16 @@ public class GeoHashQuery {
         queries.add(queryForGeoHash(geoHashSE, queryBits));
         queries.add(queryForGeoHash(geoHashSW, queryBits));
 
-        // Join queries
+        return joinQueries(queries);
+    }
+
+    /**
+     * Joins all queries of the set that are adjacent or overlapping, so the same geohashes are covered by fewer
+     * queries.
+     * @param queries The queries to join, this set is modified
+     * @return The joined queries
+     */
+    public static Set<GeoHashQuery> joinQueries(Set<GeoHashQuery> queries) {
         boolean didJoin;
         do {
             GeoHashQuery query1 = null;
@@ -162,10 +220,91 @@ public class GeoHashQuery {
     }
 
     public boolean containsGeoHash(GeoHash hash) {
+        if (hash.hasBits()) {
+            return this.containsGeoHash(hash.getBits(), hash.getPrecision());
+        }
         String hashStr = hash.getGeoHashString();
         return this.startValue.compareTo(hashStr) <= 0 && this.endValue.compareTo(hashStr) > 0;
     }
 
+    /**
+     * Same as {@link #containsGeoHash(GeoHash)} for the bits of a geohash, see {@link GeoHashCodec}.
+     */
+    public boolean containsGeoHash(long hashBits, int precision) {
+        if (this.startBits != NO_BITS && this.endBits != NO_BITS &&
+                this.startValue.length() <= precision && this.endValue.length() <= precision) {
+            long hashStart = hashBits >>> ((precision - this.startValue.length())*Base32Utils.BITS_PER_BASE32_CHAR);
+            long hashEnd = hashBits >>> ((precision - this.endValue.length())*Base32Utils.BITS_PER_BASE32_CHAR);
+            return this.startBits <= hashStart && this.endBits > hashEnd;
+        }
+        String hashStr = GeoHashCodec.toBase32(hashBits, precision);
+        return this.startValue.compareTo(hashStr) <= 0 && this.endValue.compareTo(hashStr) > 0;
+    }
+
+    /**
+     * @return The first geohash of the given precision covered by this query, as bits, or NO_BITS if unknown
+     */
+    public long lowerBound(int precision) {
+        if (this.startBits == NO_BITS || this.startValue.length() > precision) {
+            return NO_BITS;
+        }
+        return this.startBits << ((precision - this.startValue.length())*Base32Utils.BITS_PER_BASE32_CHAR);
+    }
+
+    /**
+     * @return The first geohash of the given precision after this query, as bits, or NO_BITS if unknown
+     */
+    public long upperBound(int precision) {
+        if (this.endBits == NO_BITS || this.endValue.length() > precision) {
+            return NO_BITS;
+        }
+        return this.endBits << ((precision - this.endValue.length())*Base32Utils.BITS_PER_BASE32_CHAR);
+    }
+
+    /**
+     * Checks if all geohashes of the given precision with bits in [from, to) are part of this query. Returns false if
+     * this can't be decided on the bit representation.
+     */
+    public boolean containsRange(long from, long to, int precision) {
+        long lower = this.lowerBound(precision);
+        long upper = this.upperBound(precision);
+        return lower != NO_BITS && upper != NO_BITS && lower <= from && to <= upper;
+    }
+
+    /**
+     * Checks if any geohash of the given precision with bits in [from, to) may be part of this query. Returns true if
+     * this can't be decided on the bit representation.
+     */
+    public boolean intersectsRange(long from, long to, int precision) {
+        long lower = this.lowerBound(precision);
+        long upper = this.upperBound(precision);
+        if (lower == NO_BITS || upper == NO_BITS) {
+            return true;
+        }
+        return from < upper && lower < to;
+    }
+
+    /**
+     * Returns the bounds of the smallest geohash cell that contains all geohashes of this query, as
+     * [latitudeMin, latitudeMax, longitudeMin, longitudeMax]. Queries that can't be handled as bits span the world.
+     */
+    public double[] getBoundingBox() {
+        double[] bounds = new double[] { -90, 90, -180, 180 };
+        int precision = Math.max(this.startValue.length(), this.endValue.length());
+        long lower = this.lowerBound(precision);
+        long upper = this.upperBound(precision);
+        if (lower == NO_BITS || upper == NO_BITS || upper <= lower) {
+            return bounds;
+        }
+        int totalBits = precision*Base32Utils.BITS_PER_BASE32_CHAR;
+        // the first and the last geohash of the query share the prefix of the cell
+        int prefixBits = totalBits - (64 - Long.numberOfLeadingZeros(lower ^ (upper - 1)));
+        if (prefixBits > 0) {
+            GeoHashCodec.decodeCellBounds(lower >>> (totalBits - prefixBits), prefixBits, bounds);
+        }
+        return bounds;
+    }
+
     public String getStartValue() {
         return this.startValue;
     }
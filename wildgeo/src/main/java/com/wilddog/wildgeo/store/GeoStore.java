@@ -0,0 +1,162 @@
+package com.wilddog.wildgeo.store;
+
+import com.wilddog.client.SyncError;
+import com.wilddog.wildgeo.GeoLocation;
+import com.wilddog.wildgeo.GeoMotion;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The storage WildGeo keeps its locations in. Locations are stored by key together with their geohash, and can be
+ * subscribed to by ranges of geohashes. {@link WilddogGeoStore} stores them in Wilddog, {@link InMemoryGeoStore} in
+ * local memory, e.g. for tests and benchmarks.
+ *
+ * A location may be stored together with the {@link GeoMotion} it was measured with. Stores that can't keep a motion
+ * reject the write with an IllegalArgumentException before anything is written; locations without one are reported
+ * with a null motion.
+ *
+ * Callbacks may be called on any thread, but the callbacks of a subscription must be called one at a time and in the
+ * order the changes happened. Implementations must not hold any lock while calling back.
+ */
+public interface GeoStore {
+
+    /**
+     * Receives the locations of a geohash range.
+     */
+    interface RangeListener {
+        /**
+         * Called for every location in the range when subscribing and for every location entering the range later.
+         */
+        void onLocationAdded(String key, GeoLocation location, GeoMotion motion);
+
+        /**
+         * Called if a location in the range moved and is still in the range.
+         */
+        void onLocationChanged(String key, GeoLocation location, GeoMotion motion);
+
+        /**
+         * Called if a location was removed or left the range.
+         */
+        void onLocationRemoved(String key);
+
+        /**
+         * Called once after all locations that were in the range when subscribing were added.
+         */
+        void onLoaded();
+
+        /**
+         * Called if the range can't be read, e.g. because of security rules. No more callbacks follow.
+         */
+        void onError(SyncError error);
+    }
+
+    /**
+     * A subscription to a geohash range.
+     */
+    interface Subscription {
+        /**
+         * Stops all further callbacks of this subscription.
+         */
+        void cancel();
+    }
+
+    /**
+     * Receives the result of a single read.
+     */
+    interface ReadCallback {
+        /**
+         * @param key The key that was read
+         * @param location The location of the key or null if there is none
+         */
+        void onLocationResult(String key, GeoLocation location);
+
+        void onError(SyncError error);
+    }
+
+    /**
+     * Receives the result of a read of several keys.
+     */
+    interface BatchReadCallback {
+        /**
+         * @param locations The locations of all keys that were read, null for keys that have none
+         */
+        void onLocationsResult(Map<String, GeoLocation> locations);
+
+        void onError(SyncError error);
+    }
+
+    /**
+     * Receives the keys found by {@link #readStaleKeys(long, int, KeysCallback)} or removed by
+     * {@link #removeStaleKeys(Collection, long, KeysCallback)}.
+     */
+    interface KeysCallback {
+        /**
+         * @param keys The keys found, oldest first
+         */
+        void onKeysResult(List<String> keys);
+
+        void onError(SyncError error);
+    }
+
+    /**
+     * Receives the result of a write.
+     */
+    interface WriteCallback {
+        /**
+         * @param error The error or null if the write succeeded
+         */
+        void onComplete(SyncError error);
+    }
+
+    /**
+     * Returns the number of characters of the geohashes the locations are stored with. Queries keep the bounds of
+     * their ranges shorter than this.
+     * @return The precision of the stored geohashes
+     */
+    int getPrecision();
+
+    /**
+     * Subscribes to all locations with a geohash between startValue and endValue, both inclusive, in the order of the
+     * geohash strings.
+     */
+    Subscription subscribe(String startValue, String endValue, RangeListener listener);
+
+    /**
+     * Reads the current location of a key once.
+     */
+    void read(String key, ReadCallback callback);
+
+    /**
+     * Reads the current locations of several keys once and answers them with a single callback. The callback is
+     * called once, either with the locations of all keys or with the first error.
+     */
+    void read(Collection<String> keys, BatchReadCallback callback);
+
+    /**
+     * Reads up to limit keys whose location was measured at or before the given time, oldest first. Keys stored
+     * without a motion have no time and are never returned.
+     * @param timestamp The time in milliseconds since the epoch
+     * @param limit The maximal number of keys to return
+     * @param callback The callback that receives the keys
+     */
+    void readStaleKeys(long timestamp, int limit, KeysCallback callback);
+
+    /**
+     * Removes those of the given keys whose location was still measured at or before the given time. Each key is
+     * checked and removed atomically, so a key that was written again since it was read stays.
+     * @param keys The keys to remove, usually found by {@link #readStaleKeys(long, int, KeysCallback)}
+     * @param timestamp The time in milliseconds since the epoch
+     * @param callback The callback that receives the keys that were removed, or the first error
+     */
+    void removeStaleKeys(Collection<String> keys, long timestamp, KeysCallback callback);
+
+    /**
+     * Writes the locations of several keys in one atomic update. A null location removes the key.
+     * @param locations The new locations by key
+     * @param motions The motions of the keys that have one, may be null
+     * @param callback A callback that is called once the write succeeded or failed, may be null
+     */
+    void write(Map<String, GeoLocation> locations, Map<String, GeoMotion> motions, WriteCallback callback);
+}
@@ -0,0 +1,294 @@
+package com.wilddog.wildgeo.store;
+
+import com.wilddog.wildgeo.GeoLocation;
+import com.wilddog.wildgeo.GeoMotion;
+import com.wilddog.wildgeo.core.GeoHash;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps all locations in local memory, ordered by geohash, to run WildGeo without any server, e.g. in tests or load
+ * tests. All callbacks are delivered in order on a single daemon thread, optionally after a simulated network latency.
+ *
+ * The InMemoryGeoStore class is thread safe.
+ */
+public class InMemoryGeoStore implements GeoStore {
+
+    private static class Entry implements Comparable<Entry> {
+        final String geoHash;
+        final String key;
+        final GeoLocation location;
+        final GeoMotion motion;
+
+        Entry(String geoHash, String key, GeoLocation location, GeoMotion motion) {
+            this.geoHash = geoHash;
+            this.key = key;
+            this.location = location;
+            this.motion = motion;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int result = this.geoHash.compareTo(other.geoHash);
+            return (result != 0) ? result : this.key.compareTo(other.key);
+        }
+    }
+
+    private class RangeSubscription implements Subscription {
+        final String startValue;
+        final String endValue;
+        final RangeListener listener;
+        volatile boolean cancelled;
+
+        RangeSubscription(String startValue, String endValue, RangeListener listener) {
+            this.startValue = startValue;
+            this.endValue = endValue;
+            this.listener = listener;
+        }
+
+        boolean contains(Entry entry) {
+            return entry != null && this.startValue.compareTo(entry.geoHash) <= 0 &&
+                    this.endValue.compareTo(entry.geoHash) >= 0;
+        }
+
+        @Override
+        public void cancel() {
+            this.cancelled = true;
+            synchronized (InMemoryGeoStore.this) {
+                InMemoryGeoStore.this.subscriptions.remove(this);
+            }
+        }
+    }
+
+    private final long latency;
+    private final int precision;
+    private final ScheduledExecutorService callbackThread;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final NavigableSet<Entry> index = new TreeSet<Entry>();
+    private final List<RangeSubscription> subscriptions = new ArrayList<RangeSubscription>();
+
+    /**
+     * Creates a new empty store that calls back as soon as possible.
+     */
+    public InMemoryGeoStore() {
+        this(0);
+    }
+
+    /**
+     * Creates a new empty store that delays every callback by the given latency.
+     * @param latency The simulated network latency in milliseconds
+     */
+    public InMemoryGeoStore(long latency) {
+        this(latency, GeoHash.DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates a new empty store that delays every callback by the given latency and indexes locations by geohashes
+     * of the given precision.
+     * @param latency The simulated network latency in milliseconds
+     * @param precision The number of characters of the stored geohashes, between 2 and 22
+     */
+    public InMemoryGeoStore(long latency, int precision) {
+        if (latency < 0) {
+            throw new IllegalArgumentException("Latency must not be negative!");
+        }
+        if (precision < 2 || precision > GeoHash.MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision must be between 2 and " + GeoHash.MAX_PRECISION + ": " +
+                    precision);
+        }
+        this.latency = latency;
+        this.precision = precision;
+        this.callbackThread = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "WildGeo-InMemoryGeoStore");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // called with the lock held; callbacks of equal delay run in the order they were scheduled
+    private void deliver(Runnable callback) {
+        this.callbackThread.schedule(callback, this.latency, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The number of keys in this store
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    @Override
+    public int getPrecision() {
+        return this.precision;
+    }
+
+    @Override
+    public synchronized Subscription subscribe(String startValue, String endValue, final RangeListener listener) {
+        final RangeSubscription subscription = new RangeSubscription(startValue, endValue, listener);
+        // every entry with a geohash that is not larger than endValue sorts before endValue + "\0"
+        final List<Entry> initial = new ArrayList<Entry>(this.index.subSet(
+                new Entry(startValue, "", null, null), true, new Entry(endValue + "\0", "", null, null), false));
+        this.subscriptions.add(subscription);
+        this.deliver(new Runnable() {
+            @Override
+            public void run() {
+                for (Entry entry: initial) {
+                    if (subscription.cancelled) {
+                        return;
+                    }
+                    listener.onLocationAdded(entry.key, entry.location, entry.motion);
+                }
+                if (!subscription.cancelled) {
+                    listener.onLoaded();
+                }
+            }
+        });
+        return subscription;
+    }
+
+    @Override
+    public synchronized void read(final String key, final ReadCallback callback) {
+        Entry entry = this.entries.get(key);
+        final GeoLocation location = (entry == null) ? null : entry.location;
+        this.deliver(new Runnable() {
+            @Override
+            public void run() {
+                callback.onLocationResult(key, location);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void read(Collection<String> keys, final BatchReadCallback callback) {
+        final Map<String, GeoLocation> locations = new HashMap<String, GeoLocation>(keys.size() * 2);
+        for (String key: keys) {
+            Entry entry = this.entries.get(key);
+            locations.put(key, (entry == null) ? null : entry.location);
+        }
+        this.deliver(new Runnable() {
+            @Override
+            public void run() {
+                callback.onLocationsResult(locations);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void readStaleKeys(long timestamp, int limit, final KeysCallback callback) {
+        List<Entry> stale = new ArrayList<Entry>();
+        for (Entry entry: this.entries.values()) {
+            if (entry.motion != null && entry.motion.timestamp <= timestamp) {
+                stale.add(entry);
+            }
+        }
+        Collections.sort(stale, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry entry1, Entry entry2) {
+                return (entry1.motion.timestamp < entry2.motion.timestamp) ? -1 :
+                        ((entry1.motion.timestamp == entry2.motion.timestamp) ? 0 : 1);
+            }
+        });
+        final List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < stale.size() && i < limit; i++) {
+            keys.add(stale.get(i).key);
+        }
+        this.deliver(new Runnable() {
+            @Override
+            public void run() {
+                callback.onKeysResult(keys);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void removeStaleKeys(Collection<String> keys, long timestamp, final KeysCallback callback) {
+        final List<String> removed = new ArrayList<String>();
+        for (String key: keys) {
+            Entry oldEntry = this.entries.get(key);
+            if (oldEntry == null || oldEntry.motion == null || oldEntry.motion.timestamp > timestamp) {
+                continue;
+            }
+            this.entries.remove(key);
+            this.index.remove(oldEntry);
+            for (RangeSubscription subscription: this.subscriptions) {
+                this.notifyChange(subscription, key, oldEntry, null);
+            }
+            removed.add(key);
+        }
+        this.deliver(new Runnable() {
+            @Override
+            public void run() {
+                callback.onKeysResult(removed);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void write(Map<String, GeoLocation> locations, Map<String, GeoMotion> motions,
+                                   final WriteCallback callback) {
+        for (Map.Entry<String, GeoLocation> update: locations.entrySet()) {
+            String key = update.getKey();
+            GeoLocation location = update.getValue();
+            Entry newEntry = (location == null) ? null :
+                    new Entry(new GeoHash(location.latitude, location.longitude, this.precision).getGeoHashString(),
+                            key, location, (motions == null) ? null : motions.get(key));
+            Entry oldEntry = (newEntry == null) ? this.entries.remove(key) : this.entries.put(key, newEntry);
+            if (oldEntry != null) {
+                this.index.remove(oldEntry);
+            }
+            if (newEntry != null) {
+                this.index.add(newEntry);
+            }
+            for (RangeSubscription subscription: this.subscriptions) {
+                this.notifyChange(subscription, key, oldEntry, newEntry);
+            }
+        }
+        if (callback != null) {
+            this.deliver(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onComplete(null);
+                }
+            });
+        }
+    }
+
+    private void notifyChange(final RangeSubscription subscription, final String key, Entry oldEntry,
+                              final Entry newEntry) {
+        final boolean wasInRange = subscription.contains(oldEntry);
+        final boolean isInRange = subscription.contains(newEntry);
+        if (!wasInRange && !isInRange) {
+            return;
+        }
+        this.deliver(new Runnable() {
+            @Override
+            public void run() {
+                if (subscription.cancelled) {
+                    return;
+                }
+                if (!wasInRange) {
+                    subscription.listener.onLocationAdded(key, newEntry.location, newEntry.motion);
+                } else if (isInRange) {
+                    subscription.listener.onLocationChanged(key, newEntry.location, newEntry.motion);
+                } else {
+                    subscription.listener.onLocationRemoved(key);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,591 @@
+package com.wilddog.wildgeo.store;
+
+import com.wilddog.client.ChildEventListener;
+import com.wilddog.client.DataSnapshot;
+import com.wilddog.client.MutableData;
+import com.wilddog.client.Query;
+import com.wilddog.client.SyncError;
+import com.wilddog.client.SyncReference;
+import com.wilddog.client.Transaction;
+import com.wilddog.client.ValueEventListener;
+import com.wilddog.wildgeo.GeoLocation;
+import com.wilddog.wildgeo.GeoMotion;
+import com.wilddog.wildgeo.core.GeoHash;
+import com.wilddog.wildgeo.util.Base32Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores locations as children of a Wilddog reference. Every child holds the geohash in "g" and the coordinates in
+ * "l", and ranges are subscribed with queries ordered by "g". A location with a motion also holds the time it was
+ * measured in "t" and, if it is moving, the speed and bearing in "v". Stale keys are found by a query ordered by "t",
+ * which needs ".indexOn": "t" as well.
+ *
+ * Optionally every child also holds coarse prefixes of its geohash, e.g. the first 5 characters in "g5". Ranges that
+ * are short enough, as used by queries with a large radius, are then subscribed with queries ordered by the coarsest
+ * such field, which needs a much smaller index on the server. All fields used must be indexed in the security rules,
+ * e.g. ".indexOn": ["g", "g5"], and all locations must have been written with the same fields.
+ *
+ * In the compact format every child is a single string instead, the geohash followed by the coordinates in fixed point
+ * with a resolution of 1e-7 degrees, e.g. "wx4g0ec1ts" + "kf6q8wb" + "rb4z0x9". Ranges are subscribed with queries
+ * ordered by value, which needs ".indexOn": ".value" in the security rules. Locations are decoded from both formats,
+ * but only the format the store was created with is found by its queries. A location written with a time but without
+ * a speed gets ":" and the time in 9 base32 characters appended, e.g. "wx4g0ec1ts" + "kf6q8wb" + "rb4z0x9" +
+ * ":" + "1m742th00". Moving locations can't be stored in the compact format, and stale keys can't be searched for.
+ */
+public class WilddogGeoStore implements GeoStore {
+
+    private static class RangeSubscription implements Subscription, ChildEventListener, ValueEventListener {
+        private final Query query;
+        private final RangeListener listener;
+
+        RangeSubscription(Query query, RangeListener listener) {
+            this.query = query;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onChildAdded(DataSnapshot dataSnapshot, String s) {
+            Object value = dataSnapshot.getValue();
+            GeoLocation location = decodeLocation(value);
+            if (location != null) {
+                this.listener.onLocationAdded(dataSnapshot.getKey(), location, decodeMotion(value));
+            }
+        }
+
+        @Override
+        public void onChildChanged(DataSnapshot dataSnapshot, String s) {
+            Object value = dataSnapshot.getValue();
+            GeoLocation location = decodeLocation(value);
+            if (location != null) {
+                this.listener.onLocationChanged(dataSnapshot.getKey(), location, decodeMotion(value));
+            }
+        }
+
+        @Override
+        public void onChildRemoved(DataSnapshot dataSnapshot) {
+            this.listener.onLocationRemoved(dataSnapshot.getKey());
+        }
+
+        @Override
+        public void onChildMoved(DataSnapshot dataSnapshot, String s) {
+            // ignore, this should be handled by onChildChanged
+        }
+
+        @Override
+        public void onDataChange(DataSnapshot dataSnapshot) {
+            this.listener.onLoaded();
+        }
+
+        @Override
+        public void onCancelled(SyncError syncError) {
+            this.listener.onError(syncError);
+        }
+
+        @Override
+        public void cancel() {
+            this.query.removeEventListener((ChildEventListener) this);
+        }
+    }
+
+    // the number of base32 characters of each fixed point coordinate in the compact format
+    private static final int COMPACT_COORDINATE_LENGTH = 7;
+
+    private static final long COMPACT_LATITUDE_OFFSET = 900000000L;
+    private static final long COMPACT_LONGITUDE_OFFSET = 1800000000L;
+    private static final double COMPACT_SCALE = 1e7;
+
+    // the compact format appends the time a location was measured after this character
+    private static final char COMPACT_TIMESTAMP_SEPARATOR = ':';
+    // the number of base32 characters of the time, enough for milliseconds until the year 3084
+    private static final int COMPACT_TIMESTAMP_LENGTH = 9;
+    private static final long COMPACT_TIMESTAMP_LIMIT =
+            1L << (COMPACT_TIMESTAMP_LENGTH*Base32Utils.BITS_PER_BASE32_CHAR);
+
+    private final SyncReference syncReference;
+    private final int precision;
+    // the precisions of the coarse geohash fields, ascending
+    private final int[] indexPrecisions;
+    private final boolean compact;
+
+    /**
+     * Creates a new store that keeps its locations at the given Wilddog reference, with geohashes of the default
+     * precision of 10 characters.
+     * @param syncReference The Wilddog reference
+     */
+    public WilddogGeoStore(SyncReference syncReference) {
+        this(syncReference, GeoHash.DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates a new store that keeps its locations at the given Wilddog reference.
+     * @param syncReference The Wilddog reference
+     * @param precision The number of characters of the geohash stored in "g", between 2 and 22
+     * @param indexPrecisions The precisions of additional coarse geohash fields, each smaller than precision
+     */
+    public WilddogGeoStore(SyncReference syncReference, int precision, int... indexPrecisions) {
+        this(syncReference, precision, indexPrecisions, false);
+    }
+
+    /**
+     * Creates a new store that keeps its locations at the given Wilddog reference, optionally in the compact format.
+     * The compact format has no coarse geohash fields.
+     * @param syncReference The Wilddog reference
+     * @param precision The number of characters of the stored geohash, between 2 and 22
+     * @param compact Whether each location is stored as a single string
+     */
+    public WilddogGeoStore(SyncReference syncReference, int precision, boolean compact) {
+        this(syncReference, precision, new int[0], compact);
+    }
+
+    private WilddogGeoStore(SyncReference syncReference, int precision, int[] indexPrecisions, boolean compact) {
+        if (syncReference == null) {
+            throw new NullPointerException();
+        }
+        if (precision < 2 || precision > GeoHash.MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision must be between 2 and " + GeoHash.MAX_PRECISION + ": " +
+                    precision);
+        }
+        for (int indexPrecision: indexPrecisions) {
+            if (indexPrecision < 1 || indexPrecision >= precision) {
+                throw new IllegalArgumentException("Index precision must be between 1 and " + (precision - 1) + ": " +
+                        indexPrecision);
+            }
+        }
+        this.syncReference = syncReference;
+        this.precision = precision;
+        this.indexPrecisions = indexPrecisions.clone();
+        Arrays.sort(this.indexPrecisions);
+        this.compact = compact;
+    }
+
+    /**
+     * @return The Wilddog reference the locations are stored at
+     */
+    public SyncReference getSyncReference() {
+        return this.syncReference;
+    }
+
+    @Override
+    public int getPrecision() {
+        return this.precision;
+    }
+
+    /**
+     * @return The precisions of the coarse geohash fields written in addition to "g", ascending
+     */
+    public int[] getIndexPrecisions() {
+        return this.indexPrecisions.clone();
+    }
+
+    /**
+     * @return Whether locations are written in the compact format
+     */
+    public boolean isCompact() {
+        return this.compact;
+    }
+
+    static GeoLocation getLocationValue(DataSnapshot dataSnapshot) {
+        return decodeLocation(dataSnapshot.getValue());
+    }
+
+    /**
+     * Decodes a stored value in either format, without converting it first. Returns null for anything that is not a
+     * valid location.
+     */
+    static GeoLocation decodeLocation(Object value) {
+        if (value instanceof String) {
+            return decodeCompactLocation((String) value);
+        }
+        if (!(value instanceof Map)) {
+            return null;
+        }
+        Object location = ((Map<?, ?>) value).get("l");
+        if (!(location instanceof List) || ((List<?>) location).size() != 2) {
+            return null;
+        }
+        Object latitudeObj = ((List<?>) location).get(0);
+        Object longitudeObj = ((List<?>) location).get(1);
+        if (!(latitudeObj instanceof Number) || !(longitudeObj instanceof Number)) {
+            return null;
+        }
+        double latitude = ((Number) latitudeObj).doubleValue();
+        double longitude = ((Number) longitudeObj).doubleValue();
+        return GeoLocation.coordinatesValid(latitude, longitude) ? new GeoLocation(latitude, longitude) : null;
+    }
+
+    /**
+     * Decodes the motion stored with a location in the map format. Returns null if there is none or it is invalid.
+     */
+    static GeoMotion decodeMotion(Object value) {
+        if (value instanceof String) {
+            return decodeCompactMotion((String) value);
+        }
+        if (!(value instanceof Map)) {
+            return null;
+        }
+        Object velocity = ((Map<?, ?>) value).get("v");
+        Object timestamp = ((Map<?, ?>) value).get("t");
+        if (!(timestamp instanceof Number)) {
+            return null;
+        }
+        if (velocity == null) {
+            // a location that is not moving
+            return new GeoMotion(0, 0, ((Number) timestamp).longValue());
+        }
+        if (!(velocity instanceof List) || ((List<?>) velocity).size() != 2) {
+            return null;
+        }
+        Object speedObj = ((List<?>) velocity).get(0);
+        Object bearingObj = ((List<?>) velocity).get(1);
+        if (!(speedObj instanceof Number) || !(bearingObj instanceof Number)) {
+            return null;
+        }
+        double speed = ((Number) speedObj).doubleValue();
+        double bearing = ((Number) bearingObj).doubleValue();
+        if (!(speed >= 0) || Double.isInfinite(speed) || Double.isNaN(bearing) || Double.isInfinite(bearing)) {
+            return null;
+        }
+        return new GeoMotion(speed, bearing, ((Number) timestamp).longValue());
+    }
+
+    private static GeoLocation decodeCompactLocation(String value) {
+        int length = compactLocationLength(value);
+        if (length < 2 * COMPACT_COORDINATE_LENGTH + 1) {
+            return null;
+        }
+        long latitudeBits = decodeBase32(value, length - 2 * COMPACT_COORDINATE_LENGTH, COMPACT_COORDINATE_LENGTH);
+        long longitudeBits = decodeBase32(value, length - COMPACT_COORDINATE_LENGTH, COMPACT_COORDINATE_LENGTH);
+        if (latitudeBits < 0 || longitudeBits < 0) {
+            return null;
+        }
+        double latitude = (latitudeBits - COMPACT_LATITUDE_OFFSET) / COMPACT_SCALE;
+        double longitude = (longitudeBits - COMPACT_LONGITUDE_OFFSET) / COMPACT_SCALE;
+        return GeoLocation.coordinatesValid(latitude, longitude) ? new GeoLocation(latitude, longitude) : null;
+    }
+
+    // the length of a compact value without the time appended to it
+    private static int compactLocationLength(String value) {
+        int separator = value.length() - COMPACT_TIMESTAMP_LENGTH - 1;
+        return (separator >= 0 && value.charAt(separator) == COMPACT_TIMESTAMP_SEPARATOR) ? separator : value.length();
+    }
+
+    private static GeoMotion decodeCompactMotion(String value) {
+        int length = compactLocationLength(value);
+        if (length == value.length()) {
+            return null;
+        }
+        long timestamp = decodeBase32(value, length + 1, COMPACT_TIMESTAMP_LENGTH);
+        return (timestamp < 0) ? null : new GeoMotion(0, 0, timestamp);
+    }
+
+    // returns -1 if the characters are not base32
+    private static long decodeBase32(String value, int offset, int length) {
+        long bits = 0;
+        for (int i = offset; i < offset + length; i++) {
+            char c = value.charAt(i);
+            if (!Base32Utils.isValidBase32Char(c)) {
+                return -1;
+            }
+            bits = (bits << Base32Utils.BITS_PER_BASE32_CHAR) | Base32Utils.base32CharToValue(c);
+        }
+        return bits;
+    }
+
+    static String compactLocationValue(GeoHash geoHash, GeoLocation location) {
+        long latitudeBits = Math.round(location.latitude * COMPACT_SCALE) + COMPACT_LATITUDE_OFFSET;
+        long longitudeBits = Math.round(location.longitude * COMPACT_SCALE) + COMPACT_LONGITUDE_OFFSET;
+        return geoHash.getGeoHashString() +
+                Base32Utils.bitsToBase32String(latitudeBits, COMPACT_COORDINATE_LENGTH) +
+                Base32Utils.bitsToBase32String(longitudeBits, COMPACT_COORDINATE_LENGTH);
+    }
+
+    static String compactLocationValue(GeoHash geoHash, GeoLocation location, GeoMotion motion) {
+        String value = compactLocationValue(geoHash, location);
+        if (motion == null) {
+            return value;
+        }
+        return value + COMPACT_TIMESTAMP_SEPARATOR +
+                Base32Utils.bitsToBase32String(motion.timestamp, COMPACT_TIMESTAMP_LENGTH);
+    }
+
+    // the compact format keeps the time of a motion only
+    private static void checkCompactMotions(Map<String, GeoMotion> motions) {
+        for (GeoMotion motion: motions.values()) {
+            if (motion == null) {
+                continue;
+            }
+            if (motion.speed > 0) {
+                throw new IllegalArgumentException("The compact format stores no speed and bearing!");
+            }
+            if (motion.timestamp < 0 || motion.timestamp >= COMPACT_TIMESTAMP_LIMIT) {
+                throw new IllegalArgumentException("The compact format can't store the time " + motion.timestamp);
+            }
+        }
+    }
+
+    private Map<String, Object> locationValue(GeoHash geoHash, GeoLocation location, GeoMotion motion) {
+        Map<String, Object> value = new HashMap<String, Object>();
+        String hash = geoHash.getGeoHashString();
+        value.put("g", hash);
+        for (int indexPrecision: this.indexPrecisions) {
+            value.put("g" + indexPrecision, hash.substring(0, indexPrecision));
+        }
+        value.put("l", new double[]{location.latitude, location.longitude});
+        if (motion != null) {
+            if (motion.speed > 0) {
+                value.put("v", new double[]{motion.speed, motion.bearing});
+            }
+            value.put("t", motion.timestamp);
+        }
+        return value;
+    }
+
+    private static SyncReference.CompletionListener completionListener(final WriteCallback callback) {
+        return new SyncReference.CompletionListener() {
+            @Override
+            public void onComplete(SyncError error, SyncReference syncReference) {
+                callback.onComplete(error);
+            }
+        };
+    }
+
+    /**
+     * Returns the coarsest geohash field that orders the range like "g". Its values must not be shorter than the
+     * start, and the inclusive end must be shorter than its values, so that no value equals the end.
+     */
+    private String orderField(String startValue, String endValue) {
+        for (int indexPrecision: this.indexPrecisions) {
+            if (startValue.length() <= indexPrecision && endValue.length() < indexPrecision) {
+                return "g" + indexPrecision;
+            }
+        }
+        return "g";
+    }
+
+    @Override
+    public Subscription subscribe(String startValue, String endValue, RangeListener listener) {
+        // compact values are longer than any range bound, so the inclusive end matches no value either
+        Query ordered = this.compact ? this.syncReference.orderByValue() :
+                this.syncReference.orderByChild(this.orderField(startValue, endValue));
+        Query query = ordered.startAt(startValue).endAt(endValue);
+        RangeSubscription subscription = new RangeSubscription(query, listener);
+        query.addChildEventListener(subscription);
+        query.addListenerForSingleValueEvent(subscription);
+        return subscription;
+    }
+
+    @Override
+    public void read(String key, final ReadCallback callback) {
+        this.syncReference.child(key).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                if (dataSnapshot.getValue() == null) {
+                    callback.onLocationResult(dataSnapshot.getKey(), null);
+                } else {
+                    GeoLocation location = getLocationValue(dataSnapshot);
+                    if (location != null) {
+                        callback.onLocationResult(dataSnapshot.getKey(), location);
+                    } else {
+                        String message = "WildGeo data has invalid format: " + dataSnapshot.getValue();
+                        callback.onError(SyncError.fromException(new Throwable(message)));
+                    }
+                }
+            }
+
+            @Override
+            public void onCancelled(SyncError syncError) {
+                callback.onError(syncError);
+            }
+        });
+    }
+
+    @Override
+    public void read(Collection<String> keys, final BatchReadCallback callback) {
+        final Set<String> remaining = new HashSet<String>(keys);
+        final Map<String, GeoLocation> locations = new HashMap<String, GeoLocation>(remaining.size() * 2);
+        if (remaining.isEmpty()) {
+            callback.onLocationsResult(locations);
+            return;
+        }
+        // Wilddog can't read several children by key in one request, so all reads are issued at once and share a
+        // round trip on the connection; the callback is called once the last of them arrived
+        ReadCallback keyCallback = new ReadCallback() {
+            @Override
+            public void onLocationResult(String key, GeoLocation location) {
+                boolean done;
+                synchronized (remaining) {
+                    if (!remaining.remove(key)) {
+                        // failed already
+                        return;
+                    }
+                    locations.put(key, location);
+                    done = remaining.isEmpty();
+                }
+                if (done) {
+                    callback.onLocationsResult(locations);
+                }
+            }
+
+            @Override
+            public void onError(SyncError error) {
+                synchronized (remaining) {
+                    if (remaining.isEmpty()) {
+                        return;
+                    }
+                    remaining.clear();
+                }
+                callback.onError(error);
+            }
+        };
+        for (String key: new ArrayList<String>(remaining)) {
+            this.read(key, keyCallback);
+        }
+    }
+
+    @Override
+    public void readStaleKeys(long timestamp, int limit, final KeysCallback callback) {
+        if (this.compact) {
+            throw new IllegalStateException("Stale keys can't be searched for in the compact format!");
+        }
+        // starting at 0 skips the children without a time, which are ordered first
+        Query query = this.syncReference.orderByChild("t").startAt(0).endAt(timestamp).limitToFirst(limit);
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                List<String> keys = new ArrayList<String>();
+                for (DataSnapshot child: dataSnapshot.getChildren()) {
+                    keys.add(child.getKey());
+                }
+                callback.onKeysResult(keys);
+            }
+
+            @Override
+            public void onCancelled(SyncError syncError) {
+                callback.onError(syncError);
+            }
+        });
+    }
+
+    @Override
+    public void removeStaleKeys(Collection<String> keys, final long timestamp, final KeysCallback callback) {
+        final Set<String> remaining = new HashSet<String>(keys);
+        final List<String> removed = new ArrayList<String>();
+        if (remaining.isEmpty()) {
+            callback.onKeysResult(removed);
+            return;
+        }
+        // every key is removed by a transaction of its own, which only commits if the stored time is still old
+        for (final String key: new ArrayList<String>(remaining)) {
+            this.syncReference.child(key).runTransaction(new Transaction.Handler() {
+                // whether the last run of the transaction found the key stale
+                private boolean stale;
+
+                @Override
+                public Transaction.Result doTransaction(MutableData currentData) {
+                    Object value = currentData.getValue();
+                    GeoMotion motion = decodeMotion(value);
+                    this.stale = motion != null && motion.timestamp <= timestamp;
+                    if (!this.stale && value != null) {
+                        return Transaction.abort();
+                    }
+                    // an empty value may just not be known locally yet, in that case the server runs the
+                    // transaction again with the stored value
+                    currentData.setValue(null);
+                    return Transaction.success(currentData);
+                }
+
+                @Override
+                public void onComplete(SyncError error, boolean committed, DataSnapshot currentData) {
+                    boolean done;
+                    synchronized (remaining) {
+                        if (!remaining.remove(key)) {
+                            // failed already
+                            return;
+                        }
+                        if (error != null) {
+                            remaining.clear();
+                        } else if (committed && this.stale) {
+                            removed.add(key);
+                        }
+                        done = remaining.isEmpty();
+                    }
+                    if (error != null) {
+                        callback.onError(error);
+                    } else if (done) {
+                        callback.onKeysResult(removed);
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void write(Map<String, GeoLocation> locations, Map<String, GeoMotion> motions, WriteCallback callback) {
+        if (this.compact && motions != null) {
+            // checked before anything is written
+            checkCompactMotions(motions);
+        }
+        if (locations.size() == 1) {
+            // a single key is written directly to its child
+            Map.Entry<String, GeoLocation> entry = locations.entrySet().iterator().next();
+            SyncReference keyRef = this.syncReference.child(entry.getKey());
+            GeoLocation location = entry.getValue();
+            if (location == null) {
+                if (callback != null) {
+                    keyRef.setValue(null, completionListener(callback));
+                } else {
+                    keyRef.setValue(null);
+                }
+            } else if (this.compact) {
+                GeoHash geoHash = new GeoHash(location.latitude, location.longitude, this.precision);
+                String value = compactLocationValue(geoHash, location,
+                        (motions == null) ? null : motions.get(entry.getKey()));
+                if (callback != null) {
+                    keyRef.setValue(value, completionListener(callback));
+                } else {
+                    keyRef.setValue(value);
+                }
+            } else {
+                GeoHash geoHash = new GeoHash(location.latitude, location.longitude, this.precision);
+                Map<String, Object> value = this.locationValue(geoHash, location,
+                        (motions == null) ? null : motions.get(entry.getKey()));
+                if (callback != null) {
+                    keyRef.setValue(value, geoHash.getGeoHashString(), completionListener(callback));
+                } else {
+                    keyRef.setValue(value, geoHash.getGeoHashString());
+                }
+            }
+            return;
+        }
+        Map<String, Object> updates = new HashMap<String, Object>(locations.size() * 2);
+        for (Map.Entry<String, GeoLocation> entry: locations.entrySet()) {
+            GeoLocation location = entry.getValue();
+            if (location == null) {
+                updates.put(entry.getKey(), null);
+            } else if (this.compact) {
+                GeoHash geoHash = new GeoHash(location.latitude, location.longitude, this.precision);
+                updates.put(entry.getKey(), compactLocationValue(geoHash, location,
+                        (motions == null) ? null : motions.get(entry.getKey())));
+            } else {
+                GeoHash geoHash = new GeoHash(location.latitude, location.longitude, this.precision);
+                Map<String, Object> value = this.locationValue(geoHash, location,
+                        (motions == null) ? null : motions.get(entry.getKey()));
+                value.put(".priority", geoHash.getGeoHashString());
+                updates.put(entry.getKey(), value);
+            }
+        }
+        if (callback != null) {
+            this.syncReference.updateChildren(updates, completionListener(callback));
+        } else {
+            this.syncReference.updateChildren(updates);
+        }
+    }
+}
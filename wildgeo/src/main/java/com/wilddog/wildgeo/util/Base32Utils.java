@@ -7,15 +7,29 @@ public class Base32Utils {
 
     private static final String BASE32_CHARS = "0123456789bcdefghjkmnpqrstuvwxyz";
 
+    private static final char[] VALUE_TO_CHAR = BASE32_CHARS.toCharArray();
+
+    // reverse lookup table indexed by char, -1 for chars that are not part of the alphabet
+    private static final byte[] CHAR_TO_VALUE = new byte[128];
+
+    static {
+        for (int i = 0; i < CHAR_TO_VALUE.length; i++) {
+            CHAR_TO_VALUE[i] = -1;
+        }
+        for (int i = 0; i < VALUE_TO_CHAR.length; i++) {
+            CHAR_TO_VALUE[VALUE_TO_CHAR[i]] = (byte)i;
+        }
+    }
+
     public static char valueToBase32Char(int value) {
-        if (value < 0 || value >= BASE32_CHARS.length()) {
+        if (value < 0 || value >= VALUE_TO_CHAR.length) {
             throw new IllegalArgumentException("Not a valid base32 value: " + value);
         }
-        return BASE32_CHARS.charAt(value);
+        return VALUE_TO_CHAR[value];
     }
 
     public static int base32CharToValue(char base32Char) {
-        int value = BASE32_CHARS.indexOf(base32Char);
+        int value = (base32Char < CHAR_TO_VALUE.length) ? CHAR_TO_VALUE[base32Char] : -1;
         if (value == -1) {
             throw new IllegalArgumentException("Not a valid base32 char: " + base32Char);
         } else {
@@ -23,7 +37,44 @@ public class Base32Utils {
         }
     }
 
+    public static boolean isValidBase32Char(char c) {
+        return c < CHAR_TO_VALUE.length && CHAR_TO_VALUE[c] != -1;
+    }
+
     public static boolean isValidBase32String(String string) {
-        return string.matches("^[" + BASE32_CHARS + "]*$");
+        for (int i = 0; i < string.length(); i++) {
+            if (!isValidBase32Char(string.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts the lowest length*5 bits into a base32 string of the given length.
+     */
+    public static String bitsToBase32String(long bits, int length) {
+        char[] buffer = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            buffer[i] = VALUE_TO_CHAR[(int)(bits & 0x1f)];
+            bits >>>= BITS_PER_BASE32_CHAR;
+        }
+        return new String(buffer);
+    }
+
+    /**
+     * Converts a base32 string of at most 12 characters into its bit representation.
+     *
+     * @throws IllegalArgumentException If the string contains characters outside of the base32 alphabet
+     */
+    public static long base32StringToBits(String string) {
+        if (string.length() * BITS_PER_BASE32_CHAR > 63) {
+            throw new IllegalArgumentException("Base32 string too long to fit into a long: " + string);
+        }
+        long bits = 0;
+        for (int i = 0; i < string.length(); i++) {
+            bits = (bits << BITS_PER_BASE32_CHAR) | base32CharToValue(string.charAt(i));
+        }
+        return bits;
     }
 }
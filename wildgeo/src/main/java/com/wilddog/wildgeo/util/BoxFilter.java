@@ -0,0 +1,131 @@
+package com.wilddog.wildgeo.util;
+
+import com.wilddog.wildgeo.GeoLocation;
+
+/**
+ * Tests locations against a latitude/longitude box, e.g. the visible region of a map. A box whose west longitude is
+ * larger than its east longitude crosses the 180th meridian.
+ */
+public class BoxFilter implements GeoArea {
+
+    // Earth's mean radius in meters, as used by GeoUtils.distance
+    private static final double EARTH_MEAN_RADIUS = (Constants.EARTH_EQ_RADIUS + Constants.EARTH_POLAR_RADIUS)/2;
+
+    // The size reported for degenerated boxes, in meters
+    private static final double MIN_SIZE = 1;
+
+    private final double latitudeMin;
+    private final double latitudeMax;
+    private final double longitudeMin;
+    private final double longitudeMax;
+    // whether the box consists of [longitudeMin, 180] and [-180, longitudeMax]
+    private final boolean wraps;
+
+    public BoxFilter(GeoLocation southWest, GeoLocation northEast) {
+        this(southWest.latitude, northEast.latitude, southWest.longitude, northEast.longitude);
+    }
+
+    public BoxFilter(double latitudeMin, double latitudeMax, double longitudeMin, double longitudeMax) {
+        if (latitudeMin > latitudeMax) {
+            throw new IllegalArgumentException("South of box lies north of its north: " + latitudeMin + " > " +
+                    latitudeMax);
+        }
+        this.latitudeMin = latitudeMin;
+        this.latitudeMax = latitudeMax;
+        this.longitudeMin = longitudeMin;
+        this.longitudeMax = longitudeMax;
+        this.wraps = longitudeMin > longitudeMax;
+    }
+
+    /**
+     * Returns a box that is larger than this box by at least the given margin on every side.
+     * @param margin The margin in meters
+     * @return The larger box
+     */
+    public BoxFilter expand(double margin) {
+        double latitudeDelta = GeoUtils.distanceToLatitudeDegrees(margin);
+        double south = Math.max(-90, this.latitudeMin - latitudeDelta);
+        double north = Math.min(90, this.latitudeMax + latitudeDelta);
+        // longitude degrees are shortest at the latitude closest to a pole
+        double longitudeDelta = GeoUtils.distanceToLongitudeDegrees(margin, Math.max(Math.abs(south), Math.abs(north)));
+        if (this.longitudeWidth() + 2*longitudeDelta >= 360) {
+            return new BoxFilter(south, north, -180, 180);
+        }
+        return new BoxFilter(south, north, GeoUtils.wrapLongitude(this.longitudeMin - longitudeDelta),
+                GeoUtils.wrapLongitude(this.longitudeMax + longitudeDelta));
+    }
+
+    private double longitudeWidth() {
+        return this.wraps ? this.longitudeMax - this.longitudeMin + 360 : this.longitudeMax - this.longitudeMin;
+    }
+
+    @Override
+    public boolean contains(GeoLocation location) {
+        return this.contains(location.latitude, location.longitude);
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        if (latitude < this.latitudeMin || latitude > this.latitudeMax) {
+            return false;
+        }
+        if (this.wraps) {
+            return longitude >= this.longitudeMin || longitude <= this.longitudeMax;
+        } else {
+            return longitude >= this.longitudeMin && longitude <= this.longitudeMax;
+        }
+    }
+
+    @Override
+    public int relateToCell(double latitudeMin, double latitudeMax, double longitudeMin, double longitudeMax) {
+        int latitudeStatus = relateIntervals(latitudeMin, latitudeMax, this.latitudeMin, this.latitudeMax);
+        int longitudeStatus;
+        if (this.wraps) {
+            longitudeStatus = Math.max(relateIntervals(longitudeMin, longitudeMax, this.longitudeMin, 180),
+                    relateIntervals(longitudeMin, longitudeMax, -180, this.longitudeMax));
+        } else {
+            longitudeStatus = relateIntervals(longitudeMin, longitudeMax, this.longitudeMin, this.longitudeMax);
+        }
+        return Math.min(latitudeStatus, longitudeStatus);
+    }
+
+    // how the interval [min, max] relates to the interval [areaMin, areaMax]
+    private static int relateIntervals(double min, double max, double areaMin, double areaMax) {
+        if (min > areaMax || max < areaMin) {
+            return CELL_OUTSIDE;
+        } else if (min >= areaMin && max <= areaMax) {
+            return CELL_INSIDE;
+        } else {
+            return CELL_PARTIAL;
+        }
+    }
+
+    @Override
+    public double[] getBoundingBox() {
+        return new double[]{this.latitudeMin, this.latitudeMax, this.longitudeMin, this.longitudeMax};
+    }
+
+    @Override
+    public GeoLocation getCenter() {
+        return new GeoLocation((this.latitudeMin + this.latitudeMax)/2,
+                GeoUtils.wrapLongitude(this.longitudeMin + this.longitudeWidth()/2));
+    }
+
+    @Override
+    public double getSize() {
+        return sizeOfBox(this.latitudeMin, this.latitudeMax, this.longitudeWidth());
+    }
+
+    @Override
+    public double getArea() {
+        double latitudeFactor = Math.sin(Math.toRadians(this.latitudeMax)) - Math.sin(Math.toRadians(this.latitudeMin));
+        return EARTH_MEAN_RADIUS*EARTH_MEAN_RADIUS*Math.toRadians(this.longitudeWidth())*latitudeFactor;
+    }
+
+    // half of the shorter side of a box in meters, measured at its middle latitude
+    static double sizeOfBox(double latitudeMin, double latitudeMax, double longitudeWidth) {
+        double height = (latitudeMax - latitudeMin)*Constants.METERS_PER_DEGREE_LATITUDE;
+        double width = longitudeWidth/GeoUtils.distanceToLongitudeDegrees(1, (latitudeMin + latitudeMax)/2);
+        return Math.max(MIN_SIZE, Math.min(height, width)/2);
+    }
+}
@@ -0,0 +1,178 @@
+package com.wilddog.wildgeo.util;
+
+import com.wilddog.wildgeo.GeoLocation;
+
+/**
+ * Tests locations against a fixed circle, giving the same answer as comparing {@link GeoUtils#distance} with the
+ * radius, but without computing the full distance for most locations. Locations outside of the bounding box of the
+ * circle are rejected and locations inside of a box inscribed into the circle are accepted by comparing degrees only.
+ * The remaining locations are compared by their squared half chord against a precomputed threshold, and only
+ * locations right on the boundary fall back to the exact distance.
+ */
+public class CircleFilter implements GeoArea {
+
+    // Earth's mean radius in meters, as used by GeoUtils.distance
+    private static final double EARTH_MEAN_RADIUS = (Constants.EARTH_EQ_RADIUS + Constants.EARTH_POLAR_RADIUS)/2;
+
+    // Relative tolerance of the squared half chord test, within it the exact distance decides
+    private static final double CHORD_TOLERANCE = 1e-9;
+
+    // Factor the inner box is shrunk by to stay clear of rounding errors
+    private static final double INNER_BOX_SHRINK = 1 - 1e-6;
+
+    // Tolerance in meters when deciding if a whole cell is inside or outside of the circle
+    private static final double CELL_DISTANCE_TOLERANCE = 0.001;
+
+    private final double latitude;
+    private final double longitude;
+    private final double radius;
+    private final double cosLatitude;
+    // squared half chord of the radius, see the haversine formula in GeoUtils.distance
+    private final double threshold;
+    private final boolean containsEverything;
+    // degree limits of the bounding box, a longitude limit of 180 or more disables the longitude test
+    private final double outerLatitudeDelta;
+    private final double outerLongitudeDelta;
+    // degree limits of the inscribed box
+    private final double innerLatitudeDelta;
+    private final double innerLongitudeDelta;
+
+    public CircleFilter(GeoLocation center, double radius) {
+        this(center.latitude, center.longitude, radius);
+    }
+
+    public CircleFilter(double latitude, double longitude, double radius) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radius = radius;
+        this.cosLatitude = Math.cos(Math.toRadians(latitude));
+
+        double angle = radius/EARTH_MEAN_RADIUS;
+        this.containsEverything = angle >= Math.PI;
+        double sinHalfAngle = Math.sin(Math.min(angle, Math.PI)/2);
+        this.threshold = sinHalfAngle*sinHalfAngle;
+
+        // the great circle distance is at least the distance in latitude
+        this.outerLatitudeDelta = Math.toDegrees(angle)*(1 + CHORD_TOLERANCE) + Constants.EPSILON;
+        double latitudeRadians = Math.toRadians(latitude);
+        if (angle >= Math.PI/2 || Math.abs(latitudeRadians) + angle >= Math.PI/2) {
+            // the circle contains a pole or is too large, every longitude may be part of it
+            this.outerLongitudeDelta = 180;
+        } else {
+            double delta = Math.toDegrees(Math.asin(Math.sin(angle)/this.cosLatitude));
+            this.outerLongitudeDelta = delta*(1 + CHORD_TOLERANCE) + Constants.EPSILON;
+        }
+
+        // a box with half the squared half chord in latitude, the rest is left for the longitude
+        double innerLatitudeRadians = angle/Math.sqrt(2)*INNER_BOX_SHRINK;
+        double latitudeSouth = latitudeRadians - innerLatitudeRadians;
+        double latitudeNorth = latitudeRadians + innerLatitudeRadians;
+        double maxCos;
+        if (latitudeSouth <= 0 && latitudeNorth >= 0) {
+            maxCos = 1;
+        } else {
+            maxCos = Math.cos(Math.min(Math.abs(latitudeSouth), Math.abs(latitudeNorth)));
+        }
+        double sinHalfLatitude = Math.sin(innerLatitudeRadians/2);
+        double remaining = this.threshold - sinHalfLatitude*sinHalfLatitude;
+        double cosFactor = this.cosLatitude*maxCos;
+        if (this.containsEverything || angle >= Math.PI/2 || remaining <= 0) {
+            this.innerLatitudeDelta = -1;
+            this.innerLongitudeDelta = -1;
+        } else {
+            this.innerLatitudeDelta = Math.toDegrees(innerLatitudeRadians);
+            if (cosFactor <= remaining) {
+                this.innerLongitudeDelta = 180;
+            } else {
+                double innerLongitudeRadians = 2*Math.asin(Math.sqrt(remaining/cosFactor));
+                this.innerLongitudeDelta = Math.toDegrees(innerLongitudeRadians)*INNER_BOX_SHRINK;
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(GeoLocation location) {
+        return this.contains(location.latitude, location.longitude);
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        if (this.containsEverything) {
+            return true;
+        }
+        double latitudeDelta = Math.abs(latitude - this.latitude);
+        if (latitudeDelta > this.outerLatitudeDelta) {
+            return false;
+        }
+        double longitudeDelta = Math.abs(longitude - this.longitude);
+        if (longitudeDelta > 180) {
+            longitudeDelta = 360 - longitudeDelta;
+        }
+        if (longitudeDelta > this.outerLongitudeDelta) {
+            return false;
+        }
+        if (latitudeDelta <= this.innerLatitudeDelta && longitudeDelta <= this.innerLongitudeDelta) {
+            return true;
+        }
+        double sinHalfLatitude = Math.sin(Math.toRadians(latitude - this.latitude)/2);
+        double sinHalfLongitude = Math.sin(Math.toRadians(longitude - this.longitude)/2);
+        double a = sinHalfLatitude*sinHalfLatitude +
+                this.cosLatitude*Math.cos(Math.toRadians(latitude))*sinHalfLongitude*sinHalfLongitude;
+        if (a < this.threshold*(1 - CHORD_TOLERANCE)) {
+            return true;
+        } else if (a > this.threshold*(1 + CHORD_TOLERANCE)) {
+            return false;
+        } else {
+            return GeoUtils.distance(latitude, longitude, this.latitude, this.longitude) <= this.radius;
+        }
+    }
+
+    @Override
+    public int relateToCell(double latitudeMin, double latitudeMax, double longitudeMin, double longitudeMax) {
+        double min = GeoUtils.minDistanceToBox(this.latitude, this.longitude,
+                latitudeMin, latitudeMax, longitudeMin, longitudeMax);
+        if (min > this.radius + CELL_DISTANCE_TOLERANCE) {
+            return CELL_OUTSIDE;
+        }
+        double max = GeoUtils.maxDistanceToBox(this.latitude, this.longitude,
+                latitudeMin, latitudeMax, longitudeMin, longitudeMax);
+        if (max < this.radius - CELL_DISTANCE_TOLERANCE) {
+            return CELL_INSIDE;
+        }
+        return CELL_PARTIAL;
+    }
+
+    @Override
+    public double[] getBoundingBox() {
+        double latitudeMin = Math.max(-90, this.latitude - this.outerLatitudeDelta);
+        double latitudeMax = Math.min(90, this.latitude + this.outerLatitudeDelta);
+        if (this.containsEverything || this.outerLongitudeDelta >= 180) {
+            return new double[]{latitudeMin, latitudeMax, -180, 180};
+        }
+        return new double[]{latitudeMin, latitudeMax, GeoUtils.wrapLongitude(this.longitude - this.outerLongitudeDelta),
+                GeoUtils.wrapLongitude(this.longitude + this.outerLongitudeDelta)};
+    }
+
+    @Override
+    public GeoLocation getCenter() {
+        return new GeoLocation(this.latitude, this.longitude);
+    }
+
+    @Override
+    public double getSize() {
+        return this.radius;
+    }
+
+    @Override
+    public double getArea() {
+        double angle = Math.min(Math.PI, this.radius/EARTH_MEAN_RADIUS);
+        return 2*Math.PI*EARTH_MEAN_RADIUS*EARTH_MEAN_RADIUS*(1 - Math.cos(angle));
+    }
+
+    /**
+     * @return The radius of the circle in meters
+     */
+    public double getRadius() {
+        return this.radius;
+    }
+}
@@ -0,0 +1,48 @@
+package com.wilddog.wildgeo.util;
+
+import com.wilddog.wildgeo.GeoLocation;
+
+/**
+ * An area on the surface of the earth a geo query can be restricted to. Besides testing single locations, an area can
+ * tell how it relates to a whole latitude/longitude cell, which lets queries and coverings decide for a cell at once
+ * instead of testing every location in it.
+ */
+public interface GeoArea {
+
+    // How a cell relates to the area
+    int CELL_OUTSIDE = 0;
+    int CELL_PARTIAL = 1;
+    int CELL_INSIDE = 2;
+
+    boolean contains(GeoLocation location);
+
+    boolean contains(double latitude, double longitude);
+
+    /**
+     * Returns {@link #CELL_INSIDE} if every point of the cell is part of the area, {@link #CELL_OUTSIDE} if no point
+     * is and {@link #CELL_PARTIAL} otherwise. An area may return CELL_PARTIAL whenever it is not sure. The cell must
+     * not cross the 180th meridian.
+     */
+    int relateToCell(double latitudeMin, double latitudeMax, double longitudeMin, double longitudeMax);
+
+    /**
+     * Returns the bounding box of the area as [latitudeMin, latitudeMax, longitudeMin, longitudeMax]. A box crossing
+     * the 180th meridian has a longitudeMin larger than its longitudeMax.
+     */
+    double[] getBoundingBox();
+
+    /**
+     * @return The location the geohash precision for this area is chosen at
+     */
+    GeoLocation getCenter();
+
+    /**
+     * @return The radius in meters the geohash precision for this area is chosen for
+     */
+    double getSize();
+
+    /**
+     * @return The area in square meters
+     */
+    double getArea();
+}
@@ -20,6 +20,74 @@ public class GeoUtils {
         return radius * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
     }
 
+    /**
+     * Returns the smallest distance in meters between a location and any point of a latitude/longitude box.
+     */
+    public static double minDistanceToBox(double latitude, double longitude,
+                                          double latitudeMin, double latitudeMax,
+                                          double longitudeMin, double longitudeMax) {
+        double nearestLongitude;
+        if (longitude >= longitudeMin && longitude <= longitudeMax) {
+            nearestLongitude = longitude;
+        } else if (longitudeDelta(longitude, longitudeMin) <= longitudeDelta(longitude, longitudeMax)) {
+            nearestLongitude = longitudeMin;
+        } else {
+            nearestLongitude = longitudeMax;
+        }
+        // along the nearest meridian the distance has a single minimum, at the latitude computed below
+        double latRadians = Math.toRadians(latitude);
+        double lonDeltaRadians = Math.toRadians(longitude - nearestLongitude);
+        double nearestLatitude = Math.toDegrees(Math.atan2(Math.sin(latRadians),
+                Math.cos(latRadians)*Math.cos(lonDeltaRadians)));
+        double min = Math.min(distance(latitude, longitude, latitudeMin, nearestLongitude),
+                              distance(latitude, longitude, latitudeMax, nearestLongitude));
+        if (nearestLatitude > latitudeMin && nearestLatitude < latitudeMax) {
+            min = Math.min(min, distance(latitude, longitude, nearestLatitude, nearestLongitude));
+        }
+        return min;
+    }
+
+    /**
+     * Returns the largest distance in meters between a location and any point of a latitude/longitude box.
+     */
+    public static double maxDistanceToBox(double latitude, double longitude,
+                                          double latitudeMin, double latitudeMax,
+                                          double longitudeMin, double longitudeMax) {
+        double antipodeLongitude = wrapLongitude(longitude + 180);
+        if (-latitude >= latitudeMin && -latitude <= latitudeMax &&
+                antipodeLongitude >= longitudeMin && antipodeLongitude <= longitudeMax) {
+            return Math.PI * (Constants.EARTH_EQ_RADIUS + Constants.EARTH_POLAR_RADIUS)/2;
+        }
+        // without the antipode inside the box the distance is largest on its boundary: in a corner, or inside an edge
+        double max = Math.max(Math.max(distance(latitude, longitude, latitudeMin, longitudeMin),
+                                       distance(latitude, longitude, latitudeMin, longitudeMax)),
+                              Math.max(distance(latitude, longitude, latitudeMax, longitudeMin),
+                                       distance(latitude, longitude, latitudeMax, longitudeMax)));
+        // along a meridian the distance has a single maximum, opposite of the nearest point computed by
+        // minDistanceToBox; it is -latitude on the meridian of the antipode
+        double latRadians = Math.toRadians(latitude);
+        for (double edgeLongitude: new double[] {longitudeMin, longitudeMax}) {
+            double lonDeltaRadians = Math.toRadians(longitude - edgeLongitude);
+            double farthestLatitude = Math.toDegrees(Math.atan2(-Math.sin(latRadians),
+                    -Math.cos(latRadians)*Math.cos(lonDeltaRadians)));
+            if (farthestLatitude > latitudeMin && farthestLatitude < latitudeMax) {
+                max = Math.max(max, distance(latitude, longitude, farthestLatitude, edgeLongitude));
+            }
+        }
+        // along a parallel the distance is largest at the longitude of the antipode
+        if (antipodeLongitude > longitudeMin && antipodeLongitude < longitudeMax) {
+            max = Math.max(max, Math.max(distance(latitude, longitude, latitudeMin, antipodeLongitude),
+                                         distance(latitude, longitude, latitudeMax, antipodeLongitude)));
+        }
+        return max;
+    }
+
+    // the absolute difference of two longitudes in degrees, in the range of [0, 180]
+    private static double longitudeDelta(double longitude1, double longitude2) {
+        double delta = Math.abs(longitude1 - longitude2) % 360;
+        return delta > 180 ? 360 - delta : delta;
+    }
+
     public static double distanceToLatitudeDegrees(double distance) {
         return distance/Constants.METERS_PER_DEGREE_LATITUDE;
     }
@@ -0,0 +1,265 @@
+package com.wilddog.wildgeo.util;
+
+import com.wilddog.wildgeo.GeoLocation;
+
+import java.util.List;
+
+/**
+ * Tests locations against a polygon whose edges are straight lines in latitude/longitude, e.g. a service zone drawn on
+ * a map. The edges are sorted into latitude bands, so testing a location only looks at the few edges of its band.
+ * Polygons may cross the 180th meridian, but must not contain a pole.
+ */
+public class PolygonFilter implements GeoArea {
+
+    // Earth's mean radius in meters, as used by GeoUtils.distance
+    private static final double EARTH_MEAN_RADIUS = (Constants.EARTH_EQ_RADIUS + Constants.EARTH_POLAR_RADIUS)/2;
+
+    // The edges are sorted into at most this many latitude bands
+    private static final int MAX_BANDS = 256;
+
+    // Tolerance in degrees when deciding if an edge touches a cell
+    private static final double CELL_DEGREE_TOLERANCE = 1e-9;
+
+    // A location is tested with these longitude shifts to find the copy that lies within the unwrapped longitudes
+    private static final double[] LONGITUDE_SHIFTS = {0, 360, -360};
+
+    private final double[] latitudes;
+    // longitudes are unwrapped, so that no edge is longer than 180 degrees, and may lie beyond [-180, 180]
+    private final double[] longitudes;
+    private final double latitudeMin;
+    private final double latitudeMax;
+    private final double longitudeMin;
+    private final double longitudeMax;
+    private final int bandCount;
+    private final double bandHeight;
+    // for each band the edges crossing it, edge i runs from vertex i to vertex i + 1
+    private final int[][] bands;
+
+    public PolygonFilter(List<GeoLocation> vertices) {
+        int count = vertices.size();
+        if (count < 3) {
+            throw new IllegalArgumentException("A polygon needs at least three vertices: " + count);
+        }
+        this.latitudes = new double[count];
+        this.longitudes = new double[count];
+        double latitudeMin = 90;
+        double latitudeMax = -90;
+        double longitudeMin = Double.POSITIVE_INFINITY;
+        double longitudeMax = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            GeoLocation vertex = vertices.get(i);
+            this.latitudes[i] = vertex.latitude;
+            this.longitudes[i] = (i == 0) ? vertex.longitude :
+                    this.longitudes[i - 1] + longitudeDelta(this.longitudes[i - 1], vertex.longitude);
+            latitudeMin = Math.min(latitudeMin, this.latitudes[i]);
+            latitudeMax = Math.max(latitudeMax, this.latitudes[i]);
+            longitudeMin = Math.min(longitudeMin, this.longitudes[i]);
+            longitudeMax = Math.max(longitudeMax, this.longitudes[i]);
+        }
+        double closingLongitude = this.longitudes[count - 1] +
+                longitudeDelta(this.longitudes[count - 1], this.longitudes[0]);
+        if (Math.abs(closingLongitude - this.longitudes[0]) > 180 || longitudeMax - longitudeMin >= 360) {
+            throw new IllegalArgumentException("Polygons around a pole are not supported!");
+        }
+        this.latitudeMin = latitudeMin;
+        this.latitudeMax = latitudeMax;
+        this.longitudeMin = longitudeMin;
+        this.longitudeMax = longitudeMax;
+
+        int bandCount = (latitudeMax > latitudeMin) ? Math.min(MAX_BANDS, count) : 1;
+        this.bandCount = bandCount;
+        this.bandHeight = (latitudeMax - latitudeMin)/bandCount;
+        int[] edgeCounts = new int[bandCount];
+        for (int i = 0; i < count; i++) {
+            for (int band = this.edgeBandMin(i); band <= this.edgeBandMax(i); band++) {
+                edgeCounts[band]++;
+            }
+        }
+        this.bands = new int[bandCount][];
+        for (int band = 0; band < bandCount; band++) {
+            this.bands[band] = new int[edgeCounts[band]];
+            edgeCounts[band] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            for (int band = this.edgeBandMin(i); band <= this.edgeBandMax(i); band++) {
+                this.bands[band][edgeCounts[band]++] = i;
+            }
+        }
+    }
+
+    // the difference from the first to the second longitude, in the range of (-180, 180]
+    private static double longitudeDelta(double from, double to) {
+        double delta = (to - from) % 360;
+        if (delta > 180) {
+            return delta - 360;
+        } else if (delta <= -180) {
+            return delta + 360;
+        } else {
+            return delta;
+        }
+    }
+
+    private int band(double latitude) {
+        if (this.bandHeight <= 0) {
+            return 0;
+        }
+        int band = (int)((latitude - this.latitudeMin)/this.bandHeight);
+        return Math.max(0, Math.min(this.bandCount - 1, band));
+    }
+
+    private int edgeBandMin(int edge) {
+        int next = (edge + 1) % this.latitudes.length;
+        return this.band(Math.min(this.latitudes[edge], this.latitudes[next]));
+    }
+
+    private int edgeBandMax(int edge) {
+        int next = (edge + 1) % this.latitudes.length;
+        return this.band(Math.max(this.latitudes[edge], this.latitudes[next]));
+    }
+
+    @Override
+    public boolean contains(GeoLocation location) {
+        return this.contains(location.latitude, location.longitude);
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        if (latitude < this.latitudeMin || latitude > this.latitudeMax) {
+            return false;
+        }
+        for (double shift: LONGITUDE_SHIFTS) {
+            double shifted = longitude + shift;
+            if (shifted >= this.longitudeMin && shifted <= this.longitudeMax) {
+                return this.containsUnwrapped(latitude, shifted);
+            }
+        }
+        return false;
+    }
+
+    // counts the edges crossed by a ray from the location towards the east
+    private boolean containsUnwrapped(double latitude, double longitude) {
+        boolean inside = false;
+        for (int edge: this.bands[this.band(latitude)]) {
+            int next = (edge + 1) % this.latitudes.length;
+            double latitude1 = this.latitudes[edge];
+            double latitude2 = this.latitudes[next];
+            if ((latitude1 > latitude) != (latitude2 > latitude)) {
+                double longitude1 = this.longitudes[edge];
+                double longitude2 = this.longitudes[next];
+                double crossing = longitude1 + (latitude - latitude1)*(longitude2 - longitude1)/(latitude2 - latitude1);
+                if (longitude < crossing) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    @Override
+    public int relateToCell(double latitudeMin, double latitudeMax, double longitudeMin, double longitudeMax) {
+        if (latitudeMin > this.latitudeMax || latitudeMax < this.latitudeMin) {
+            return CELL_OUTSIDE;
+        }
+        int status = CELL_OUTSIDE;
+        for (double shift: LONGITUDE_SHIFTS) {
+            double shiftedMin = longitudeMin + shift;
+            double shiftedMax = longitudeMax + shift;
+            if (shiftedMax < this.longitudeMin || shiftedMin > this.longitudeMax) {
+                continue;
+            }
+            int shiftedStatus = this.relateToUnwrappedCell(latitudeMin, latitudeMax, shiftedMin, shiftedMax);
+            if (shiftedStatus == CELL_INSIDE) {
+                return CELL_INSIDE;
+            } else if (shiftedStatus == CELL_PARTIAL) {
+                status = CELL_PARTIAL;
+            }
+        }
+        return status;
+    }
+
+    private int relateToUnwrappedCell(double latitudeMin, double latitudeMax, double longitudeMin, double longitudeMax) {
+        double south = latitudeMin - CELL_DEGREE_TOLERANCE;
+        double north = latitudeMax + CELL_DEGREE_TOLERANCE;
+        double west = longitudeMin - CELL_DEGREE_TOLERANCE;
+        double east = longitudeMax + CELL_DEGREE_TOLERANCE;
+        double[] range = new double[2];
+        int bandMax = this.band(north);
+        for (int band = this.band(south); band <= bandMax; band++) {
+            for (int edge: this.bands[band]) {
+                int next = (edge + 1) % this.latitudes.length;
+                if (segmentIntersectsBox(this.longitudes[edge], this.latitudes[edge],
+                        this.longitudes[next], this.latitudes[next], west, east, south, north, range)) {
+                    return CELL_PARTIAL;
+                }
+            }
+        }
+        // no edge touches the cell, so the whole cell lies on the same side as its center
+        if (this.containsUnwrapped((latitudeMin + latitudeMax)/2, (longitudeMin + longitudeMax)/2)) {
+            return CELL_INSIDE;
+        } else {
+            return CELL_OUTSIDE;
+        }
+    }
+
+    // Liang-Barsky clipping of the segment against the box, range is used as scratch space
+    private static boolean segmentIntersectsBox(double x1, double y1, double x2, double y2,
+                                                double xMin, double xMax, double yMin, double yMax, double[] range) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        range[0] = 0;
+        range[1] = 1;
+        return clip(-dx, x1 - xMin, range) && clip(dx, xMax - x1, range) &&
+                clip(-dy, y1 - yMin, range) && clip(dy, yMax - y1, range);
+    }
+
+    private static boolean clip(double p, double q, double[] range) {
+        if (p == 0) {
+            return q >= 0;
+        }
+        double t = q/p;
+        if (p < 0) {
+            if (t > range[1]) {
+                return false;
+            }
+            range[0] = Math.max(range[0], t);
+        } else {
+            if (t < range[0]) {
+                return false;
+            }
+            range[1] = Math.min(range[1], t);
+        }
+        return true;
+    }
+
+    @Override
+    public double[] getBoundingBox() {
+        if (this.longitudeMax - this.longitudeMin >= 360) {
+            return new double[]{this.latitudeMin, this.latitudeMax, -180, 180};
+        }
+        return new double[]{this.latitudeMin, this.latitudeMax, GeoUtils.wrapLongitude(this.longitudeMin),
+                GeoUtils.wrapLongitude(this.longitudeMax)};
+    }
+
+    @Override
+    public GeoLocation getCenter() {
+        return new GeoLocation((this.latitudeMin + this.latitudeMax)/2,
+                GeoUtils.wrapLongitude((this.longitudeMin + this.longitudeMax)/2));
+    }
+
+    @Override
+    public double getSize() {
+        return BoxFilter.sizeOfBox(this.latitudeMin, this.latitudeMax, this.longitudeMax - this.longitudeMin);
+    }
+
+    @Override
+    public double getArea() {
+        // the area between each edge and the south pole, summed up with the sign of the edge's direction
+        double sum = 0;
+        for (int i = 0; i < this.latitudes.length; i++) {
+            int next = (i + 1) % this.latitudes.length;
+            sum += Math.toRadians(this.longitudes[next] - this.longitudes[i])*
+                    (2 + Math.sin(Math.toRadians(this.latitudes[i])) + Math.sin(Math.toRadians(this.latitudes[next])));
+        }
+        return Math.abs(sum)*EARTH_MEAN_RADIUS*EARTH_MEAN_RADIUS/2;
+    }
+}
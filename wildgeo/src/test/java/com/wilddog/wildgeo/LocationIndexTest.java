@@ -0,0 +1,182 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import com.wilddog.wildgeo.core.GeoHash;
+import com.wilddog.wildgeo.core.GeoHashCodec;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+public class LocationIndexTest {
+
+    private static final int CELL_BITS = 10;
+
+    private static final long SAN_FRANCISCO = hash(37.7853889, -122.4056973);
+    private static final long SAN_FRANCISCO_NEARBY = hash(37.7863889, -122.4046973);
+    private static final long NEW_YORK = hash(40.7127, -74.0059);
+    private static final long SYDNEY = hash(-33.8688, 151.2093);
+
+    private static long hash(double latitude, double longitude) {
+        return GeoHashCodec.encode(latitude, longitude, GeoHash.DEFAULT_PRECISION);
+    }
+
+    private static LocationIndex newIndex() {
+        return new LocationIndex(GeoHash.DEFAULT_PRECISION, CELL_BITS);
+    }
+
+    // the slots of the cell the hash falls into, empty if there is no such cell
+    private static Set<Integer> slotsAt(LocationIndex index, long geoHash) {
+        Set<Integer> slots = new HashSet<Integer>();
+        for (LocationIndex.Cell cell: index.cells()) {
+            if (index.cellStart(cell) <= geoHash && geoHash < index.cellEnd(cell)) {
+                for (int slot: cell.copySlots()) {
+                    Assert.assertTrue("slot " + slot + " is in its cell twice", slots.add(slot));
+                }
+            }
+        }
+        return slots;
+    }
+
+    private static Set<Integer> setOf(Integer... slots) {
+        return new HashSet<Integer>(Arrays.asList(slots));
+    }
+
+    @Test
+    public void moveWithinACellKeepsTheCell() {
+        LocationIndex index = newIndex();
+        index.add(0, SAN_FRANCISCO);
+        index.add(1, SAN_FRANCISCO);
+        index.move(0, SAN_FRANCISCO, SAN_FRANCISCO_NEARBY);
+        Assert.assertEquals(1, index.cells().size());
+        Assert.assertEquals(setOf(0, 1), slotsAt(index, SAN_FRANCISCO_NEARBY));
+    }
+
+    @Test
+    public void moveAcrossCells() {
+        LocationIndex index = newIndex();
+        index.add(0, SAN_FRANCISCO);
+        index.add(1, SAN_FRANCISCO);
+        index.add(2, SAN_FRANCISCO);
+        index.add(3, NEW_YORK);
+
+        index.move(0, SAN_FRANCISCO, NEW_YORK);
+        Assert.assertEquals(setOf(1, 2), slotsAt(index, SAN_FRANCISCO));
+        Assert.assertEquals(setOf(0, 3), slotsAt(index, NEW_YORK));
+
+        // into a cell that does not exist yet
+        index.move(1, SAN_FRANCISCO, SYDNEY);
+        Assert.assertEquals(setOf(2), slotsAt(index, SAN_FRANCISCO));
+        Assert.assertEquals(setOf(1), slotsAt(index, SYDNEY));
+
+        // the last slot leaves, which drops the cell
+        index.move(2, SAN_FRANCISCO, NEW_YORK);
+        Assert.assertEquals(setOf(), slotsAt(index, SAN_FRANCISCO));
+        Assert.assertEquals(setOf(0, 2, 3), slotsAt(index, NEW_YORK));
+        Assert.assertEquals(2, index.cells().size());
+
+        // and back
+        index.move(0, NEW_YORK, SAN_FRANCISCO);
+        Assert.assertEquals(setOf(0), slotsAt(index, SAN_FRANCISCO));
+        Assert.assertEquals(setOf(2, 3), slotsAt(index, NEW_YORK));
+        Assert.assertEquals(3, index.cells().size());
+    }
+
+    @Test
+    public void moveOutOfTheMiddleOfACell() {
+        LocationIndex index = newIndex();
+        for (int slot = 0; slot < 6; slot++) {
+            index.add(slot, SAN_FRANCISCO);
+        }
+        // the last slot of the cell takes the place of the moved one, and must still be found there when it moves
+        index.move(1, SAN_FRANCISCO, NEW_YORK);
+        index.move(5, SAN_FRANCISCO, NEW_YORK);
+        index.move(3, SAN_FRANCISCO, NEW_YORK);
+        Assert.assertEquals(setOf(0, 2, 4), slotsAt(index, SAN_FRANCISCO));
+        Assert.assertEquals(setOf(1, 3, 5), slotsAt(index, NEW_YORK));
+
+        index.remove(4, SAN_FRANCISCO);
+        index.remove(0, SAN_FRANCISCO);
+        Assert.assertEquals(setOf(2), slotsAt(index, SAN_FRANCISCO));
+        index.move(2, SAN_FRANCISCO, NEW_YORK);
+        Assert.assertEquals(1, index.cells().size());
+        Assert.assertEquals(setOf(1, 2, 3, 5), slotsAt(index, NEW_YORK));
+    }
+
+    private static Set<Integer> slotsInRange(LocationIndex index, long from, long to) {
+        Set<Integer> slots = new HashSet<Integer>();
+        for (LocationIndex.Cell cell: index.cellsInRange(from, to)) {
+            for (int slot: cell.copySlots()) {
+                slots.add(slot);
+            }
+        }
+        return slots;
+    }
+
+    @Test
+    public void cellsInRange() {
+        LocationIndex index = newIndex();
+        index.add(0, SAN_FRANCISCO);
+        index.add(1, SAN_FRANCISCO_NEARBY);
+        index.add(2, NEW_YORK);
+        index.add(3, SYDNEY);
+        long hashes = 1L << (GeoHash.DEFAULT_PRECISION*5);
+
+        // a few prefixes are looked up one by one
+        Assert.assertEquals(setOf(0, 1), slotsInRange(index, SAN_FRANCISCO, SAN_FRANCISCO + 1));
+        Assert.assertEquals(setOf(2), slotsInRange(index, NEW_YORK - 1, NEW_YORK + 1));
+        Assert.assertEquals(setOf(), slotsInRange(index, 0, 1));
+        // more prefixes than cells are checked against all cells
+        Assert.assertEquals(setOf(0, 1, 2, 3), slotsInRange(index, 0, hashes));
+        Assert.assertEquals(setOf(0, 1, 2), slotsInRange(index, Math.min(SAN_FRANCISCO, NEW_YORK),
+                Math.max(SAN_FRANCISCO, NEW_YORK) + 1));
+        Assert.assertEquals(setOf(3), slotsInRange(index, SYDNEY, hashes));
+    }
+
+    @Test
+    public void slotsBeyondTheInitialCapacity() {
+        LocationIndex index = newIndex();
+        for (int slot = 0; slot < 100; slot++) {
+            index.add(slot, SAN_FRANCISCO);
+        }
+        for (int slot = 0; slot < 100; slot += 2) {
+            index.move(slot, SAN_FRANCISCO, SYDNEY);
+        }
+        Set<Integer> even = new HashSet<Integer>();
+        Set<Integer> odd = new HashSet<Integer>();
+        for (int slot = 0; slot < 100; slot++) {
+            ((slot % 2 == 0) ? even : odd).add(slot);
+        }
+        Assert.assertEquals(odd, slotsAt(index, SAN_FRANCISCO));
+        Assert.assertEquals(even, slotsAt(index, SYDNEY));
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class LocationStoreTest {
+
+    // all returned keys have the same hash code, so they share their home entry in the hash table
+    private static List<String> collidingKeys(int count) {
+        List<String> keys = new ArrayList<String>();
+        keys.add("");
+        while (keys.size() < count) {
+            List<String> longer = new ArrayList<String>();
+            for (String key: keys) {
+                // "Aa" and "BB" have the same hash code
+                longer.add(key + "Aa");
+                longer.add(key + "BB");
+            }
+            keys = longer;
+        }
+        return keys.subList(0, count);
+    }
+
+    private static int add(LocationStore store, String key, double latitude) {
+        return store.add(key, latitude, -latitude, (long) latitude, latitude > 0);
+    }
+
+    private static void assertStored(LocationStore store, Map<String, Integer> slots) {
+        Assert.assertEquals(slots.size(), store.size());
+        for (Map.Entry<String, Integer> entry: slots.entrySet()) {
+            int slot = store.find(entry.getKey());
+            Assert.assertEquals(entry.getKey(), entry.getValue(), Integer.valueOf(slot));
+            Assert.assertEquals(entry.getKey(), store.getKey(slot));
+        }
+        int used = 0;
+        for (int slot = 0; slot < store.getSlotCount(); slot++) {
+            if (store.isUsed(slot)) {
+                used++;
+            }
+        }
+        Assert.assertEquals(slots.size(), used);
+    }
+
+    @Test
+    public void collidingKeysAreFound() {
+        LocationStore store = new LocationStore();
+        Map<String, Integer> slots = new HashMap<String, Integer>();
+        List<String> keys = collidingKeys(64);
+        for (int i = 0; i < keys.size(); i++) {
+            slots.put(keys.get(i), add(store, keys.get(i), i));
+        }
+        assertStored(store, slots);
+        for (int i = 0; i < keys.size(); i++) {
+            int slot = store.find(keys.get(i));
+            Assert.assertEquals(i, store.getLatitude(slot), 0);
+            Assert.assertEquals(-i, store.getLongitude(slot), 0);
+            Assert.assertEquals(i, store.getGeoHash(slot));
+            Assert.assertEquals(i > 0, store.isInGeoQuery(slot));
+        }
+        // colliding, but never added
+        Assert.assertEquals(LocationStore.NO_SLOT, store.find(collidingKeys(128).get(100)));
+    }
+
+    @Test
+    public void removingCollidingKeysKeepsTheOthersFindable() {
+        List<String> keys = collidingKeys(32);
+        // remove from the start, the end and the middle of the probe sequence
+        int[][] orders = {{0, 1, 2, 3}, {31, 30, 29}, {15, 16, 8, 24, 0, 31}};
+        for (int[] order: orders) {
+            LocationStore store = new LocationStore();
+            Map<String, Integer> slots = new HashMap<String, Integer>();
+            for (int i = 0; i < keys.size(); i++) {
+                slots.put(keys.get(i), add(store, keys.get(i), i));
+            }
+            for (int index: order) {
+                String key = keys.get(index);
+                store.remove(slots.remove(key));
+                Assert.assertEquals(LocationStore.NO_SLOT, store.find(key));
+                assertStored(store, slots);
+            }
+        }
+    }
+
+    @Test
+    public void freeSlotsAreReused() {
+        LocationStore store = new LocationStore();
+        List<String> keys = collidingKeys(8);
+        for (int i = 0; i < keys.size(); i++) {
+            add(store, keys.get(i), i);
+        }
+        int slotCount = store.getSlotCount();
+        int slot = store.find(keys.get(3));
+        store.remove(slot);
+        Assert.assertFalse(store.isUsed(slot));
+
+        Assert.assertEquals(slot, add(store, "new", 42));
+        Assert.assertTrue(store.isUsed(slot));
+        Assert.assertEquals(slot, store.find("new"));
+        Assert.assertEquals(42, store.getLatitude(slot), 0);
+        Assert.assertEquals(LocationStore.NO_SLOT, store.find(keys.get(3)));
+        Assert.assertEquals(slotCount, store.getSlotCount());
+
+        // the removed key can come back, in another slot
+        int newSlot = add(store, keys.get(3), 3);
+        Assert.assertEquals(newSlot, store.find(keys.get(3)));
+        Assert.assertEquals(slot, store.find("new"));
+    }
+
+    @Test
+    public void clearRemovesAllKeys() {
+        LocationStore store = new LocationStore();
+        for (String key: collidingKeys(16)) {
+            add(store, key, 1);
+        }
+        store.clear();
+        Assert.assertEquals(0, store.size());
+        Assert.assertEquals(0, store.getSlotCount());
+        Assert.assertEquals(LocationStore.NO_SLOT, store.find(collidingKeys(16).get(5)));
+        Assert.assertEquals(0, add(store, "key", 1));
+    }
+
+    @Test
+    public void randomChangesMatchAMap() {
+        LocationStore store = new LocationStore();
+        Map<String, Integer> slots = new HashMap<String, Integer>();
+        Map<String, Double> latitudes = new HashMap<String, Double>();
+        List<String> keys = new ArrayList<String>(collidingKeys(64));
+        for (int i = 0; i < 200; i++) {
+            keys.add("key" + i);
+        }
+        Random random = new Random(42);
+        for (int step = 0; step < 20000; step++) {
+            String key = keys.get(random.nextInt(keys.size()));
+            Integer slot = slots.get(key);
+            if (slot == null) {
+                double latitude = random.nextDouble();
+                slots.put(key, add(store, key, latitude));
+                latitudes.put(key, latitude);
+            } else if (random.nextBoolean()) {
+                store.remove(slot);
+                slots.remove(key);
+                latitudes.remove(key);
+            } else {
+                double latitude = random.nextDouble();
+                store.set(slot, latitude, 0, 0);
+                latitudes.put(key, latitude);
+            }
+            if (step % 100 == 0) {
+                assertStored(store, slots);
+                for (Map.Entry<String, Double> entry: latitudes.entrySet()) {
+                    Assert.assertEquals(entry.getValue(), store.getLatitude(store.find(entry.getKey())), 0);
+                }
+            }
+        }
+        assertStored(store, slots);
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SerialTaskQueueTest {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable r) {
+            r.run();
+        }
+    };
+
+    // runs tasks on a pool and records what they throw instead of letting it end the pool threads
+    private static class RecordingExecutor implements Executor {
+        final ExecutorService pool;
+        final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+
+        RecordingExecutor(int threads) {
+            this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    // a queue that hangs must not keep the test run alive
+                    Thread thread = new Thread(r);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        @Override
+        public void execute(final Runnable r) {
+            this.pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        r.run();
+                    } catch (Throwable e) {
+                        RecordingExecutor.this.failures.add(e);
+                    }
+                }
+            });
+        }
+    }
+
+    private static void await(SerialTaskQueue queue) {
+        queue.call(new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        });
+    }
+
+    @Test(timeout = 10000)
+    public void tasksOfConcurrentSubmittersRunOneAtATimeInOrder() throws InterruptedException {
+        final int threads = 4;
+        final int tasksPerThread = 10000;
+        // several threads in the executor, so only the queue keeps the tasks apart
+        RecordingExecutor executor = new RecordingExecutor(3);
+        final SerialTaskQueue queue = new SerialTaskQueue(executor);
+        // not synchronized, the tasks never run concurrently
+        final List<Integer> ran = new ArrayList<Integer>();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        Thread[] submitters = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int first = t*tasksPerThread;
+            submitters[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = first; i < first + tasksPerThread; i++) {
+                        final int task = i;
+                        queue.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+                                ran.add(task);
+                                running.decrementAndGet();
+                            }
+                        });
+                    }
+                }
+            };
+            submitters[t].start();
+        }
+        for (Thread submitter: submitters) {
+            submitter.join();
+        }
+        await(queue);
+
+        Assert.assertEquals(threads*tasksPerThread, ran.size());
+        Assert.assertEquals(1, maxRunning.get());
+        int[] last = new int[threads];
+        for (int t = 0; t < threads; t++) {
+            last[t] = t*tasksPerThread - 1;
+        }
+        for (int task: ran) {
+            int t = task/tasksPerThread;
+            Assert.assertEquals("tasks of one thread run in the order they were submitted", last[t] + 1, task);
+            last[t] = task;
+        }
+        Assert.assertTrue(executor.failures.isEmpty());
+        executor.pool.shutdown();
+    }
+
+    @Test(timeout = 10000)
+    public void failingTaskDoesNotStrandTheTasksOfOtherThreads() throws InterruptedException {
+        RecordingExecutor executor = new RecordingExecutor(1);
+        final SerialTaskQueue queue = new SerialTaskQueue(executor);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch fail = new CountDownLatch(1);
+        queue.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    fail.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("failed");
+            }
+        });
+        started.await();
+
+        // tasks queued behind the failing one, by this thread and by another one that waits for its task
+        final CountDownLatch queued = new CountDownLatch(1);
+        queue.execute(new Runnable() {
+            @Override
+            public void run() {
+                queued.countDown();
+            }
+        });
+        final List<String> result = new CopyOnWriteArrayList<String>();
+        Thread caller = new Thread() {
+            @Override
+            public void run() {
+                result.add(queue.call(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return "ran";
+                    }
+                }));
+            }
+        };
+        caller.setDaemon(true);
+        caller.start();
+        while (caller.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        fail.countDown();
+        Assert.assertTrue(queued.await(5, TimeUnit.SECONDS));
+        caller.join(5000);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals("ran", result.get(0));
+
+        await(queue);
+        Assert.assertEquals(1, executor.failures.size());
+        Assert.assertEquals("failed", executor.failures.get(0).getMessage());
+        executor.pool.shutdown();
+    }
+
+    @Test
+    public void firstFailureIsRethrownAfterTheRemainingTasks() {
+        final SerialTaskQueue queue = new SerialTaskQueue(DIRECT_EXECUTOR);
+        final List<String> ran = new ArrayList<String>();
+        try {
+            queue.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // queued behind this task, which fails first
+                    queue.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            ran.add("second");
+                            throw new IllegalStateException("second");
+                        }
+                    });
+                    queue.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            ran.add("third");
+                        }
+                    });
+                    ran.add("first");
+                    throw new IllegalStateException("first");
+                }
+            });
+            Assert.fail("the failure of the first task is rethrown");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("first", e.getMessage());
+        }
+        Assert.assertEquals(3, ran.size());
+        Assert.assertEquals("third", ran.get(2));
+
+        // the queue still works
+        queue.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.add("fourth");
+            }
+        });
+        Assert.assertEquals("fourth", ran.get(3));
+    }
+
+    @Test(timeout = 10000)
+    public void callRethrowsTheExceptionOfItsTask() {
+        RecordingExecutor executor = new RecordingExecutor(1);
+        SerialTaskQueue queue = new SerialTaskQueue(executor);
+        try {
+            queue.call(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    throw new IllegalArgumentException("invalid");
+                }
+            });
+            Assert.fail("the exception of the task is rethrown");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("invalid", e.getMessage());
+        }
+        await(queue);
+        // it reached the caller only
+        Assert.assertTrue(executor.failures.isEmpty());
+        executor.pool.shutdown();
+    }
+
+    @Test(timeout = 10000)
+    public void callFromATaskRunsRightAway() {
+        RecordingExecutor executor = new RecordingExecutor(1);
+        final SerialTaskQueue queue = new SerialTaskQueue(executor);
+        int result = queue.call(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return queue.call(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return 42;
+                    }
+                });
+            }
+        });
+        Assert.assertEquals(42, result);
+        executor.pool.shutdown();
+    }
+}
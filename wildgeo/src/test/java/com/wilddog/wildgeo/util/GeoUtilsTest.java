@@ -0,0 +1,89 @@
+/*
+ * Wilddog WildGeo Java Library
+ *
+ * Copyright © 2014 Wilddog - All Rights Reserved
+ * https://www.wilddog.com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binaryform must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY WILDDOG AS IS AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL WILDDOG BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.wilddog.wildgeo.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class GeoUtilsTest {
+
+    // the largest distance to any of the sampled points of the box, a lower bound for maxDistanceToBox
+    private static double sampledMaxDistance(double latitude, double longitude, double latitudeMin,
+                                             double latitudeMax, double longitudeMin, double longitudeMax) {
+        final int steps = 200;
+        double max = 0;
+        for (int i = 0; i <= steps; i++) {
+            for (int j = 0; j <= steps; j++) {
+                double sampleLatitude = latitudeMin + (latitudeMax - latitudeMin)*i/steps;
+                double sampleLongitude = longitudeMin + (longitudeMax - longitudeMin)*j/steps;
+                max = Math.max(max, GeoUtils.distance(latitude, longitude, sampleLatitude, sampleLongitude));
+            }
+        }
+        return max;
+    }
+
+    @Test
+    public void maxDistanceInsideAnEdgeOfAFarBox() {
+        // the farthest point of the box is (0, 175) on its eastern edge, not a corner
+        double max = GeoUtils.maxDistanceToBox(0, 0, -10, 10, 170, 175);
+        Assert.assertEquals(GeoUtils.distance(0, 0, 0, 175), max, 1);
+        // the farthest point is on the southern edge, at the longitude of the antipode
+        max = GeoUtils.maxDistanceToBox(20, 5, 5, 30, -179, -170);
+        Assert.assertEquals(GeoUtils.distance(20, 5, 5, -175), max, 1);
+    }
+
+    @Test
+    public void largeCircleDoesNotContainAFarCell() {
+        CircleFilter circle = new CircleFilter(0, 0, 19000000);
+        Assert.assertFalse(circle.contains(0, 175));
+        Assert.assertEquals(GeoArea.CELL_PARTIAL, circle.relateToCell(-10, 10, 170, 175));
+    }
+
+    @Test
+    public void maxDistanceIsNeverBelowAnyPointOfTheBox() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            double latitude = random.nextDouble()*180 - 90;
+            double longitude = random.nextDouble()*360 - 180;
+            double latitudeMin = random.nextDouble()*180 - 90;
+            double latitudeMax = Math.min(90, latitudeMin + random.nextDouble()*40);
+            double longitudeMin = random.nextDouble()*360 - 180;
+            double longitudeMax = Math.min(180, longitudeMin + random.nextDouble()*40);
+            double max = GeoUtils.maxDistanceToBox(latitude, longitude, latitudeMin, latitudeMax, longitudeMin,
+                    longitudeMax);
+            double sampled = sampledMaxDistance(latitude, longitude, latitudeMin, latitudeMax, longitudeMin,
+                    longitudeMax);
+            Assert.assertTrue("box " + i + " is " + sampled + " m away, more than " + max, sampled <= max + 1);
+            // samples are at most a fifth of a degree apart
+            Assert.assertTrue("box " + i + " is at most " + sampled + " m away, not " + max, max <= sampled + 20000);
+        }
+    }
+}